@@ -0,0 +1,168 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Writes JUnit XML reports for benchmarking the parser. The same shape and seed always give the same files.
+ * Files are written as a stream, so a 100 MB report doesn't need 100 MB of heap.
+ */
+final class JUnitCorpus {
+    private static final int FILES_PER_DIRECTORY = 100;
+    private static final String WORDS = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+    enum Root { TESTSUITES, TESTSUITE, MIXED }
+
+    enum Shape {
+        /** Thousands of small reports, as a large Gradle or Maven build leaves behind. */
+        MANY_SMALL(2000, 50, 0, 1, Root.MIXED),
+        /** One report of about 100 MB, nearly all of it {@code system-out}. */
+        HUGE_OUTPUT(1, 500, 100L * 1024 * 1024, 1, Root.TESTSUITES),
+        /** Suites nested eight levels deep. */
+        DEEP(200, 40, 0, 8, Root.TESTSUITES),
+        /** Mid-sized reports with a bare {@code testsuite} root and some output. */
+        BARE(500, 200, 16 * 1024, 1, Root.TESTSUITE);
+
+        final int files;
+        final int casesPerFile;
+        final long systemOutBytes;
+        final int depth;
+        final Root root;
+
+        Shape(int files, int casesPerFile, long systemOutBytes, int depth, Root root) {
+            this.files = files;
+            this.casesPerFile = casesPerFile;
+            this.systemOutBytes = systemOutBytes;
+            this.depth = depth;
+            this.root = root;
+        }
+    }
+
+    private final Random random;
+    private long bytes;
+    private int files;
+
+    private JUnitCorpus(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Writes the reports of a shape under a directory, spread over subdirectories of {@value #FILES_PER_DIRECTORY}.
+     *
+     * @return the corpus, to read how many files and bytes were written.
+     */
+    static JUnitCorpus generate(File dir, Shape shape, long seed) throws IOException {
+        JUnitCorpus corpus = new JUnitCorpus(seed);
+        for (int f = 0; f < shape.files; f++) {
+            File module = new File(dir, "module" + (f / FILES_PER_DIRECTORY));
+            if (!module.isDirectory() && !module.mkdirs()) {
+                throw new IOException("Failed to create " + module);
+            }
+            boolean bare = shape.root == Root.TESTSUITE || (shape.root == Root.MIXED && f % 2 == 1);
+            File file = new File(module, "TEST-com.example.Test" + f + ".xml");
+            corpus.write(file, "com.example.Test" + f, shape, bare);
+            corpus.bytes += file.length();
+            corpus.files++;
+        }
+        return corpus;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    int getFiles() {
+        return files;
+    }
+
+    private void write(File file, String name, Shape shape, boolean bare) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 64 * 1024);
+        try {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            if (!bare) {
+                w.write("<testsuites>\n");
+            }
+            writeSuite(w, name, shape, 1);
+            if (!bare) {
+                w.write("</testsuites>\n");
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    private void writeSuite(Writer w, String name, Shape shape, int level) throws IOException {
+        w.write("<testsuite name=\"" + name + "\" tests=\"" + shape.casesPerFile + "\">\n");
+        if (level < shape.depth) {
+            writeSuite(w, name + ".Nested" + level, shape, level + 1);
+        } else {
+            for (int c = 0; c < shape.casesPerFile; c++) {
+                writeCase(w, name, c);
+            }
+        }
+        if (shape.systemOutBytes > 0 && level == 1) {
+            w.write("<system-out>");
+            writeText(w, shape.systemOutBytes);
+            w.write("</system-out>\n");
+        }
+        w.write("</testsuite>\n");
+    }
+
+    private void writeCase(Writer w, String className, int c) throws IOException {
+        w.write("<testcase name=\"test" + c + "_" + Integer.toHexString(random.nextInt()) + "\" classname=\"" + className
+                + "\" time=\"" + (random.nextInt(10000) / 1000.0) + "\"");
+        double outcome = random.nextDouble();
+        if (outcome < 0.05) {
+            w.write(">\n<failure message=\"expected:&lt;" + c + "&gt; but was:&lt;" + (c + 1) + "&gt;\" type=\"java.lang.AssertionError\">");
+            w.write(SyntheticSuite.stackTrace(className, 40).replace("<", "&lt;"));
+            w.write("</failure>\n</testcase>\n");
+        } else if (outcome < 0.07) {
+            w.write(">\n<skipped/>\n</testcase>\n");
+        } else {
+            w.write("/>\n");
+        }
+    }
+
+    private void writeText(Writer w, long length) throws IOException {
+        char[] line = new char[120];
+        for (long written = 0; written < length; written += line.length + 1) {
+            for (int i = 0; i < line.length; i++) {
+                line[i] = i % 8 == 7 ? ' ' : WORDS.charAt(random.nextInt(WORDS.length()));
+            }
+            w.write(line);
+            w.write('\n');
+        }
+    }
+
+    /**
+     * Generates a corpus into a directory: {@code JUnitCorpus <dir> <shape> [seed]}.
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args[0]);
+        JUnitCorpus corpus = generate(dir, Shape.valueOf(args[1]), args.length > 2 ? Long.parseLong(args[2]) : 42);
+        System.out.println("Wrote " + corpus.getFiles() + " files, " + corpus.getBytes() + " bytes to " + dir);
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import org.jenkinsci.plugins.testrail.JunitResults.Testsuite;
+import org.jenkinsci.plugins.testrail.TestRailObjects.ElementNotFoundException;
+import org.jenkinsci.plugins.testrail.TestRailObjects.ExistingTestCases;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Results;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up cases and sections in {@link ExistingTestCases} and mapping JUnit results onto them,
+ * against generated suites of up to half a million cases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MappingBenchmark {
+    private static final PrintStream NULL_LOGGER = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+    });
+
+    @Param({"1000", "10000", "100000", "500000"})
+    public int cases;
+
+    @Param({"1", "3", "6"})
+    public int depth;
+
+    /** How many JUnit results a mapping pass maps. */
+    @Param({"1000"})
+    public int results;
+
+    private TestRailSimulator testrail;
+    private ExistingTestCases existing;
+    private List<Testsuite> junit;
+    private List<String[]> lookups;
+    private List<String> sectionNames;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        testrail = new TestRailSimulator().start();
+        int project = testrail.addProject("Benchmark");
+        int suite = testrail.addSuite(project, "Suite");
+        SyntheticSuite synthetic = SyntheticSuite.create(testrail, suite, cases, depth, 42);
+        existing = new ExistingTestCases(new TestRailClient(testrail.getUrl(), "bench", "bench"), project, suite);
+        junit = synthetic.junitTree(results, 0.1, 0.05);
+        lookups = synthetic.lookups(1024, 0.1);
+        sectionNames = synthetic.getSectionNames();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        testrail.close();
+    }
+
+    @Benchmark
+    public int getCaseId() {
+        String[] lookup = lookups.get(next++ & 1023);
+        try {
+            return existing.getCaseId(lookup[0], lookup[1]);
+        } catch (ElementNotFoundException e) {
+            return -1;
+        }
+    }
+
+    @Benchmark
+    public int getSectionId() throws ElementNotFoundException {
+        return existing.getSectionId(sectionNames.get(next++ % sectionNames.size()));
+    }
+
+    @Benchmark
+    public String[] listTestCases() throws ElementNotFoundException {
+        return existing.listTestCases();
+    }
+
+    /**
+     * A whole mapping pass, {@link ResultMapper#addSuite} for every top level suite, without creating cases.
+     */
+    @Benchmark
+    public Results map() {
+        return new ResultMapper(false).map(junit, existing, NULL_LOGGER);
+    }
+}
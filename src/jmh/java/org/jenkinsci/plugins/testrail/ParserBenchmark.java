@@ -0,0 +1,103 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.FilePath;
+import hudson.Util;
+import org.jenkinsci.plugins.testrail.JunitResults.JUnitResults;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning and parsing generated JUnit reports with {@link JUnitResults#slurpTestResults}.
+ * Besides passes per second, the {@code bytes} and {@code files} counters give bytes/s and files/s.
+ * {@link ParserThroughput} measures the same end to end, with peak heap.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParserBenchmark {
+    static final PrintStream NULL_LOGGER = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+    });
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        @Param({"MANY_SMALL", "HUGE_OUTPUT", "DEEP", "BARE"})
+        public JUnitCorpus.Shape shape;
+
+        File dir;
+        JUnitCorpus corpus;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("junit-corpus").toFile();
+            corpus = JUnitCorpus.generate(dir, shape, 42);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Util.deleteRecursive(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Throughput {
+        public long bytes;
+        public long files;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            files = 0;
+        }
+    }
+
+    @Benchmark
+    public JUnitResults slurp(Corpus corpus, Throughput throughput) throws Exception {
+        JUnitResults results = new JUnitResults(new FilePath(corpus.dir), "**/*.xml", NULL_LOGGER);
+        throughput.bytes += corpus.corpus.getBytes();
+        throughput.files += corpus.corpus.getFiles();
+        return results;
+    }
+}
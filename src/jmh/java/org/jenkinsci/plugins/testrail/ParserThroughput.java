@@ -0,0 +1,126 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.FilePath;
+import hudson.Util;
+import org.jenkinsci.plugins.testrail.JunitResults.JUnitResults;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end parser throughput: generates each corpus shape, or takes an existing directory of reports,
+ * parses it a few times and prints MB/s, files/s and the peak heap while parsing.
+ *
+ * <pre>
+ * ParserThroughput [shape|directory]... [-n passes]
+ * </pre>
+ */
+public final class ParserThroughput {
+    private ParserThroughput() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int passes = 5;
+        StringBuilder targets = new StringBuilder();
+        for (int i = 0; i < args.length; i++) {
+            if ("-n".equals(args[i])) {
+                passes = Integer.parseInt(args[++i]);
+            } else {
+                targets.append(args[i]).append(' ');
+            }
+        }
+        String[] inputs = targets.length() == 0 ? shapes() : targets.toString().trim().split(" ");
+
+        System.out.printf("%-16s %8s %10s %10s %10s %12s%n", "corpus", "files", "MB", "MB/s", "files/s", "peak heap MB");
+        for (String input : inputs) {
+            File dir = new File(input);
+            File generated = null;
+            long bytes;
+            int files;
+            if (dir.isDirectory()) {
+                bytes = 0;
+                files = 0;
+                for (FilePath report : new FilePath(dir).list("**/*.xml")) {
+                    bytes += report.length();
+                    files++;
+                }
+            } else {
+                generated = Files.createTempDirectory("junit-corpus").toFile();
+                dir = generated;
+                JUnitCorpus corpus = JUnitCorpus.generate(dir, JUnitCorpus.Shape.valueOf(input), 42);
+                bytes = corpus.getBytes();
+                files = corpus.getFiles();
+            }
+            try {
+                // One pass to warm up, so class loading and JIT don't count.
+                new JUnitResults(new FilePath(dir), "**/*.xml", ParserBenchmark.NULL_LOGGER);
+                System.gc();
+                resetPeakHeap();
+                long started = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++) {
+                    new JUnitResults(new FilePath(dir), "**/*.xml", ParserBenchmark.NULL_LOGGER);
+                }
+                double seconds = (System.nanoTime() - started) / (double) TimeUnit.SECONDS.toNanos(1);
+                double megabytes = bytes / (1024.0 * 1024.0);
+                System.out.printf("%-16s %8d %10.1f %10.1f %10.1f %12.1f%n", input, files, megabytes,
+                        megabytes * passes / seconds, files * passes / seconds, peakHeap() / (1024.0 * 1024.0));
+            } finally {
+                if (generated != null) {
+                    Util.deleteRecursive(generated);
+                }
+            }
+        }
+    }
+
+    private static String[] shapes() {
+        JUnitCorpus.Shape[] shapes = JUnitCorpus.Shape.values();
+        String[] names = new String[shapes.length];
+        for (int i = 0; i < shapes.length; i++) {
+            names[i] = shapes[i].name();
+        }
+        return names;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * The sum of the peaks of the heap pools, which can be a little more than the heap ever held at once.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
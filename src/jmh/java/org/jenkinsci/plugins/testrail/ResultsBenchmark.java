@@ -0,0 +1,118 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import org.jenkinsci.plugins.testrail.TestRailObjects.CaseStatus;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Result;
+import org.jenkinsci.plugins.testrail.TestRailObjects.ResultAggregation;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Results;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building {@link Results}, aggregating them, splitting them into chunks and spooling them as JSON,
+ * which is the same serialization as the upload payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultsBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int results;
+
+    /** The fraction of failed results, which carry a stack trace as their comment. */
+    @Param({"0.05"})
+    public double failures;
+
+    private int[] caseIds;
+    private CaseStatus[] statuses;
+    private String[] comments;
+    private Float[] elapsed;
+    private Results built;
+    private File spool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        caseIds = new int[results];
+        statuses = new CaseStatus[results];
+        comments = new String[results];
+        elapsed = new Float[results];
+        for (int i = 0; i < results; i++) {
+            // Some cases run more than once, as parameterized tests do.
+            caseIds[i] = 1 + random.nextInt(Math.max(1, results * 9 / 10));
+            boolean failed = random.nextDouble() < failures;
+            statuses[i] = failed ? CaseStatus.FAILED : CaseStatus.PASSED;
+            comments[i] = failed ? SyntheticSuite.stackTrace("com.example.Test" + i, 40) : null;
+            elapsed[i] = random.nextFloat() * 10;
+        }
+        built = build();
+        spool = File.createTempFile("testrail-benchmark", ".json");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        spool.delete();
+    }
+
+    @Benchmark
+    public Results build() {
+        Results r = new Results();
+        for (int i = 0; i < caseIds.length; i++) {
+            r.addResult(new Result(caseIds[i], statuses[i], comments[i], elapsed[i]));
+        }
+        return r;
+    }
+
+    @Benchmark
+    public Results aggregate() {
+        return build().aggregate(ResultAggregation.WORST);
+    }
+
+    @Benchmark
+    public List<Results> partition() {
+        return built.partitionFailuresFirst(TestRailOutbox.CHUNK_SIZE);
+    }
+
+    @Benchmark
+    public OutboxEntry serialize() throws IOException {
+        return OutboxEntry.write(spool, "http://testrail", "bench", 1, true, false, null, null,
+                built.partitionFailuresFirst(TestRailOutbox.CHUNK_SIZE));
+    }
+}
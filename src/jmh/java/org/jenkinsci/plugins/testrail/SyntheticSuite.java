@@ -0,0 +1,164 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import org.jenkinsci.plugins.testrail.JunitResults.Failure;
+import org.jenkinsci.plugins.testrail.JunitResults.Testcase;
+import org.jenkinsci.plugins.testrail.JunitResults.Testsuite;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A generated TestRail suite, loaded into a {@link TestRailSimulator}, and JUnit trees that match it.
+ * Sections are nested {@code depth} levels deep, and each section at the deepest level holds
+ * {@value #CASES_PER_SECTION} cases. The same seed always gives the same suite.
+ */
+final class SyntheticSuite {
+    static final int CASES_PER_SECTION = 50;
+
+    private final List<String> sectionNames = new ArrayList<String>();
+    // Section name and title of every case.
+    private final List<String[]> cases = new ArrayList<String[]>();
+    private final List<Node> leaves = new ArrayList<Node>();
+    private final Random random;
+
+    private static final class Node {
+        final String name;
+        final Node parent;
+        final List<String> titles = new ArrayList<String>();
+        int id;
+
+        Node(String name, Node parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+    }
+
+    private SyntheticSuite(long seed) {
+        this.random = new Random(seed);
+    }
+
+    static SyntheticSuite create(TestRailSimulator testrail, int suiteId, int caseCount, int depth, long seed) {
+        SyntheticSuite suite = new SyntheticSuite(seed);
+        int leafCount = Math.max(1, (caseCount + CASES_PER_SECTION - 1) / CASES_PER_SECTION);
+        int branching = Math.max(1, (int) Math.ceil(Math.pow(leafCount, 1.0 / Math.max(1, depth))));
+        suite.build(testrail, suiteId, null, "com.example", 1, Math.max(1, depth), branching, leafCount);
+        for (int c = 0; c < caseCount; c++) {
+            Node leaf = suite.leaves.get(c / CASES_PER_SECTION);
+            String title = "test" + c + "_" + Integer.toHexString(suite.random.nextInt());
+            testrail.addCase(leaf.id, title);
+            leaf.titles.add(title);
+            suite.cases.add(new String[] { leaf.name, title });
+        }
+        return suite;
+    }
+
+    private void build(TestRailSimulator testrail, int suiteId, Node parent, String prefix, int level, int depth,
+                       int branching, int leafCount) {
+        for (int i = 0; i < branching && leaves.size() < leafCount; i++) {
+            Node node = new Node(prefix + ".p" + level + "_" + i, parent);
+            node.id = testrail.addSection(suiteId, node.name, parent == null ? null : parent.id);
+            sectionNames.add(node.name);
+            if (level < depth) {
+                build(testrail, suiteId, node, node.name, level + 1, depth, branching, leafCount);
+            } else {
+                leaves.add(node);
+            }
+        }
+    }
+
+    List<String> getSectionNames() {
+        return sectionNames;
+    }
+
+    List<String[]> getCases() {
+        return cases;
+    }
+
+    /**
+     * @return section name and title pairs to look up, a fraction of which don't exist.
+     */
+    List<String[]> lookups(int count, double missing) {
+        List<String[]> lookups = new ArrayList<String[]>(count);
+        for (int i = 0; i < count; i++) {
+            String[] known = cases.get(random.nextInt(cases.size()));
+            lookups.add(random.nextDouble() < missing ? new String[] { known[0], "missing" + i } : known);
+        }
+        return lookups;
+    }
+
+    /**
+     * Builds JUnit suites nested like the sections, with {@code resultCount} cases spread evenly over the suite.
+     *
+     * @param missing the fraction of cases that don't exist in TestRail.
+     * @param failures the fraction of cases that failed, with a message and a stack trace.
+     */
+    List<Testsuite> junitTree(int resultCount, double missing, double failures) {
+        Map<Node, Testsuite> suites = new IdentityHashMap<Node, Testsuite>();
+        List<Testsuite> roots = new ArrayList<Testsuite>();
+        int stride = Math.max(1, cases.size() / Math.max(1, resultCount));
+        for (int n = 0, c = 0; n < resultCount && c < cases.size(); n++, c += stride) {
+            Node leaf = leaves.get(c / CASES_PER_SECTION);
+            Testcase testcase = new Testcase();
+            testcase.setName(random.nextDouble() < missing ? "missing" + n : leaf.titles.get(c % CASES_PER_SECTION));
+            testcase.setTime(random.nextFloat() * 10);
+            if (random.nextDouble() < failures) {
+                Failure failure = new Failure();
+                failure.setMessage("expected:<" + n + "> but was:<" + (n + 1) + ">");
+                failure.setText(stackTrace(leaf.name, 40));
+                testcase.setFailure(failure);
+            }
+            suite(leaf, suites, roots).getCases().add(testcase);
+        }
+        return roots;
+    }
+
+    private static Testsuite suite(Node node, Map<Node, Testsuite> suites, List<Testsuite> roots) {
+        Testsuite suite = suites.get(node);
+        if (suite == null) {
+            suite = new Testsuite();
+            suite.setName(node.name);
+            suite.setCases(new ArrayList<Testcase>());
+            suites.put(node, suite);
+            if (node.parent == null) {
+                roots.add(suite);
+            } else {
+                Testsuite parent = suite(node.parent, suites, roots);
+                if (!parent.hasSuites()) {
+                    parent.setSuites(new ArrayList<Testsuite>());
+                }
+                parent.getSuites().add(suite);
+            }
+        }
+        return suite;
+    }
+
+    static String stackTrace(String className, int frames) {
+        StringBuilder trace = new StringBuilder("java.lang.AssertionError: synthetic failure\n");
+        for (int i = 0; i < frames; i++) {
+            trace.append("\tat ").append(className).append(".method").append(i)
+                    .append("(Synthetic.java:").append(100 + i).append(")\n");
+        }
+        return trace.toString();
+    }
+}
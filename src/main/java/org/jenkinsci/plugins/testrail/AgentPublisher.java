@@ -0,0 +1,157 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.plugins.testrail.JunitResults.JUnitResults;
+import org.jenkinsci.plugins.testrail.TestRailObjects.*;
+
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Parses, maps and uploads the results of one target on the agent that holds the workspace,
+ * for agents that can reach TestRail themselves. Only the TestRail credentials and the
+ * options go to the agent, and only a {@link Summary} comes back.
+ *
+ * The outbox lives on the controller, so results that fail to upload from an agent are not retried.
+ */
+public class AgentPublisher extends MasterToSlaveFileCallable<AgentPublisher.Summary> {
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+    private final String user;
+    private final String password;
+    private final String owner;
+    private final int projectId;
+    private final int suiteId;
+    private final String milestoneId;
+    private final int existingRunId;
+    private final String runComment;
+    private final String junitResultsGlob;
+    private final ResultMapper mapper;
+    private final ResultAggregation aggregation;
+    private final int attachmentThreshold;
+    private final int chunkSize;
+    private final TaskListener listener;
+
+    public AgentPublisher(TestRailClient testrail, TestRailTarget target, int existingRunId, String runComment,
+                          String junitResultsGlob, ResultMapper mapper, ResultAggregation aggregation,
+                          int attachmentThreshold, int chunkSize, TaskListener listener) {
+        this.host = testrail.getHost();
+        this.user = testrail.getUser();
+        this.password = testrail.getPassword();
+        this.owner = testrail.getOwner();
+        this.projectId = target.getTestrailProject();
+        this.suiteId = target.getTestrailSuite();
+        this.milestoneId = target.getTestrailMilestone();
+        this.existingRunId = existingRunId;
+        this.runComment = runComment;
+        this.junitResultsGlob = junitResultsGlob;
+        this.mapper = mapper;
+        this.aggregation = aggregation;
+        this.attachmentThreshold = attachmentThreshold;
+        this.chunkSize = chunkSize;
+        this.listener = listener;
+    }
+
+    public Summary invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        PrintStream logger = listener.getLogger();
+        TestRailClient testrail = new TestRailClient(host, user, password).withOwner(owner);
+
+        ExistingTestCases testCases;
+        JUnitResults junitResults;
+        try {
+            testCases = new ExistingTestCases(testrail, projectId, suiteId);
+            junitResults = new JUnitResults(new FilePath(workspace), junitResultsGlob, logger);
+        } catch (ElementNotFoundException e) {
+            logger.println("Cannot find project or suite on TestRail server. Please check your Jenkins job and system configurations.");
+            return null;
+        } catch (JAXBException e) {
+            logger.println(e.getMessage());
+            return null;
+        }
+
+        Results results = mapper.map(junitResults.getSuites(), testCases, logger);
+        int mappedCount = results.size();
+        results = results.aggregate(aggregation);
+        if (results.size() < mappedCount) {
+            logger.println("Aggregated " + mappedCount + " results into " + results.size() + " for their TestRail cases.");
+        }
+        if (attachmentThreshold > 0) {
+            results.attachLongComments(attachmentThreshold);
+        }
+
+        boolean newRun = existingRunId <= 0;
+        int runId = existingRunId;
+        List<Future<?>> attachments = new ArrayList<Future<?>>();
+        try {
+            if (newRun) {
+                // The cases are known by now, so the run is created with them.
+                runId = testrail.addRun(projectId, suiteId, milestoneId, runComment, false, results.getCaseIds());
+            }
+            logger.println("Uploading results to TestRail run " + runId + " from the agent.");
+            for (Results chunk : results.partitionFailuresFirst(chunkSize)) {
+                TestRailResponse response = testrail.addResultsForCases(runId, chunk);
+                attachments.addAll(ResultUpload.uploadAttachments(testrail, chunk, response));
+            }
+            ResultUpload.awaitAttachments(attachments, runId);
+            logger.println("Successfully uploaded test results.");
+            if (newRun) {
+                testrail.closeRun(runId);
+            }
+        } catch (TestRailException e) {
+            logger.println("Error pushing results to TestRail");
+            logger.println(e.getMessage());
+            return null;
+        } finally {
+            for (Future<?> attachment : attachments) {
+                attachment.cancel(true);
+            }
+        }
+        return new Summary(runId, results.size());
+    }
+
+    /**
+     * What the agent sends back once it's done.
+     */
+    public static final class Summary implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int runId;
+        private final int resultCount;
+
+        public Summary(int runId, int resultCount) {
+            this.runId = runId;
+            this.resultCount = resultCount;
+        }
+
+        public int getRunId() { return this.runId; }
+        public int getResultCount() { return this.resultCount; }
+    }
+}
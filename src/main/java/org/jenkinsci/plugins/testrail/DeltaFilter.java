@@ -0,0 +1,193 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.model.Job;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Result;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Results;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers, per job, the last status and comment uploaded for each case of the job's most recent runs,
+ * so results that haven't changed since the last build aren't posted again.
+ *
+ * Filtering doesn't change what's remembered. Results are only recorded with {@link #commit} once TestRail
+ * has accepted them, so results that never arrive are sent again by the next build.
+ */
+public class DeltaFilter {
+    // Runs of a job that are remembered; older ones are dropped when a newer run is recorded.
+    static final int MAX_RUNS = 20;
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+    private final File file;
+    private final int runId;
+    private int suppressed;
+
+    public DeltaFilter(File file, int runId) {
+        this.file = file;
+        this.runId = runId;
+    }
+
+    public static DeltaFilter forRun(Job<?, ?> job, String host, int runId) {
+        String name = "testrail-delta-" + Integer.toHexString(host.hashCode()) + ".txt";
+        return new DeltaFilter(new File(job.getRootDir(), name), runId);
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public int getSuppressed() {
+        return this.suppressed;
+    }
+
+    /**
+     * @return the results whose status or comment changed since they were last committed;
+     * the rest are counted in {@link #getSuppressed()}.
+     */
+    public Results filter(Results results) throws IOException {
+        synchronized (lock()) {
+            Map<Integer, String> last = load().get(runId);
+            if (last == null) {
+                last = new HashMap<Integer, String>();
+            }
+            Results changed = new Results();
+            suppressed = 0;
+            for (Result result : results.getResults()) {
+                String state = state(result);
+                if (state.equals(last.get(result.getCaseId()))) {
+                    suppressed++;
+                } else {
+                    changed.addResult(result);
+                    // A case repeated in the same upload only counts once.
+                    last.put(result.getCaseId(), state);
+                }
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Records results that TestRail has accepted.
+     */
+    public void commit(Results results) throws IOException {
+        if (results.size() == 0) {
+            return;
+        }
+        synchronized (lock()) {
+            LinkedHashMap<Integer, Map<Integer, String>> runs = load();
+            Map<Integer, String> last = runs.remove(runId);
+            if (last == null) {
+                last = new HashMap<Integer, String>();
+            }
+            for (Result result : results.getResults()) {
+                last.put(result.getCaseId(), state(result));
+            }
+            // Most recently recorded last, so the oldest runs are dropped first.
+            runs.put(runId, last);
+            Iterator<Integer> oldest = runs.keySet().iterator();
+            while (runs.size() > MAX_RUNS) {
+                oldest.next();
+                oldest.remove();
+            }
+            save(runs);
+        }
+    }
+
+    private Object lock() {
+        // Parallel shards of one job share the file.
+        Object lock = LOCKS.putIfAbsent(file.getPath(), new Object());
+        return lock == null ? LOCKS.get(file.getPath()) : lock;
+    }
+
+    /**
+     * Status plus a fingerprint of the comment that ignores numbers and whitespace,
+     * so timings and line numbers alone don't count as a change. A comment moved to an attachment
+     * is fingerprinted in full, as it was before it was moved.
+     */
+    static String state(Result result) {
+        String comment = result.getAttachment() != null ? result.getAttachment() : result.getComment();
+        int fingerprint = comment == null ? 0 : comment.replaceAll("\\d+", "#").replaceAll("\\s+", " ").trim().hashCode();
+        return result.getStatus().getValue() + ":" + fingerprint;
+    }
+
+    /**
+     * @return the remembered states by run and case, in the order the runs were recorded.
+     */
+    private LinkedHashMap<Integer, Map<Integer, String>> load() throws IOException {
+        LinkedHashMap<Integer, Map<Integer, String>> runs = new LinkedHashMap<Integer, Map<Integer, String>>();
+        if (!file.exists()) {
+            return runs;
+        }
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] fields = line.split(" ", 3);
+                if (fields.length == 3) {
+                    try {
+                        Integer run = Integer.valueOf(fields[0]);
+                        Map<Integer, String> last = runs.get(run);
+                        if (last == null) {
+                            last = new HashMap<Integer, String>();
+                            runs.put(run, last);
+                        }
+                        last.put(Integer.valueOf(fields[1]), fields[2]);
+                    } catch (NumberFormatException e) {
+                        // skip damaged lines, the case is just uploaded again
+                    }
+                }
+            }
+        } finally {
+            r.close();
+        }
+        return runs;
+    }
+
+    private void save(Map<Integer, Map<Integer, String>> runs) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            for (Map.Entry<Integer, Map<Integer, String>> run : runs.entrySet()) {
+                for (Map.Entry<Integer, String> e : run.getValue().entrySet()) {
+                    w.write(run.getKey() + " " + e.getKey() + " " + e.getValue() + "\n");
+                }
+            }
+        } finally {
+            w.close();
+        }
+        if (!file.delete() && file.exists() || !tmp.renameTo(file)) {
+            throw new IOException("Failed to update " + file);
+        }
+    }
+}
@@ -20,6 +20,9 @@ package org.jenkinsci.plugins.testrail.JunitResults;
 
 import hudson.FilePath;
 import hudson.remoting.VirtualChannel;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.SuiteResult;
+import hudson.tasks.junit.TestResult;
 import hudson.util.DirScanner;
 import hudson.util.FileVisitor;
 
@@ -33,6 +36,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.plugins.testrail.TestRailFlightRecorder;
 
 /**
  * Created by Drew on 3/24/2014.
@@ -49,6 +53,39 @@ public class JUnitResults {
         slurpTestResults(fileMatchers);
     }
 
+    /**
+     * Builds the suites from results the junit plugin has already parsed, instead of reading the files again.
+     */
+    public JUnitResults(TestResult testResult, PrintStream logger) {
+        this.logger = logger;
+        Suites = new ArrayList<Testsuite>();
+        for (SuiteResult suiteResult : testResult.getSuites()) {
+            logger.println("processing " + suiteResult.getName());
+            Testsuite suite = new Testsuite();
+            suite.setName(suiteResult.getName());
+            List<Testcase> cases = new ArrayList<Testcase>();
+            for (CaseResult caseResult : suiteResult.getCases()) {
+                Testcase testcase = new Testcase();
+                testcase.setName(caseResult.getName());
+                testcase.setTime(caseResult.getDuration());
+                if (caseResult.isSkipped()) {
+                    testcase.setSkipped(new Skipped());
+                } else if (caseResult.isFailed()) {
+                    Failure failure = new Failure();
+                    failure.setMessage(caseResult.getErrorDetails());
+                    // Assertion-only failures have no stack trace.
+                    if (caseResult.getErrorStackTrace() != null) {
+                        failure.setText(caseResult.getErrorStackTrace());
+                    }
+                    testcase.setFailure(failure);
+                }
+                cases.add(testcase);
+            }
+            suite.setCases(cases);
+            Suites.add(suite);
+        }
+    }
+
     public void slurpTestResults(String fileMatchers) throws IOException, JAXBException, InterruptedException {
         Suites = new ArrayList<Testsuite>();
         JAXBContext jaxbSuiteContext = JAXBContext.newInstance(Testsuite.class);
@@ -66,6 +103,8 @@ public class JUnitResults {
                     @Override
                     public void visit(File file, String s) throws IOException {
                         logger.println("processing " + file.getName());
+                        TestRailFlightRecorder.Event event = TestRailFlightRecorder.PARSE.begin();
+                        int parsed = Suites.size();
                         try {
                             Testsuites suites = (Testsuites) jaxbSuitesUnmarshaller.unmarshal(file);
                             if (suites.hasSuites()) {
@@ -83,6 +122,9 @@ public class JUnitResults {
                         } catch (JAXBException exc) {
                             exc.printStackTrace();
                         }
+                        if (event != null) {
+                            event.commit(file.getPath(), file.length(), Suites.size() - parsed);
+                        }
                     }
                 });
                 return null;
@@ -0,0 +1,252 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import org.jenkinsci.plugins.testrail.TestRailObjects.CaseStatus;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Result;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Results;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Results spooled to the {@link TestRailOutbox} for one run.
+ *
+ * The file is append-only and holds one JSON object per line: a header, one line per chunk
+ * of results and then one line per chunk that TestRail has accepted, so an interrupted
+ * upload resumes with the first chunk that wasn't acknowledged. Runs created for just the
+ * executed cases get their case selection before any results, acknowledged the same way.
+ */
+public class OutboxEntry {
+    private final File file;
+    private final String host;
+    private final String user;
+    private final int runId;
+    private final boolean closeRun;
+    private final boolean scopeRun;
+    private boolean scoped;
+    private final long created;
+    private final String owner;
+    private final String delta;
+    private final List<Results> chunks;
+    private final BitSet done = new BitSet();
+
+    private OutboxEntry(File file, JSONObject header, List<Results> chunks) {
+        this.file = file;
+        this.host = header.getString("host");
+        this.user = header.getString("user");
+        this.runId = header.getInt("run");
+        this.closeRun = header.getBoolean("close");
+        this.scopeRun = header.optBoolean("scope");
+        this.created = header.getLong("created");
+        this.owner = header.optString("owner", null);
+        this.delta = header.optString("delta", null);
+        this.chunks = chunks;
+    }
+
+    public File getFile() { return this.file; }
+    public String getHost() { return this.host; }
+    public String getUser() { return this.user; }
+    public int getRunId() { return this.runId; }
+    public boolean getCloseRun() { return this.closeRun; }
+    public boolean getScopeRun() { return this.scopeRun; }
+    public long getCreated() { return this.created; }
+    public String getOwner() { return this.owner; }
+
+    /**
+     * @return the {@link DeltaFilter} to record accepted chunks in, or null if delta upload is off.
+     */
+    public DeltaFilter getDeltaFilter() {
+        return delta == null ? null : new DeltaFilter(new File(delta), runId);
+    }
+    public int getChunkCount() { return this.chunks.size(); }
+    public Results getChunk(int chunk) { return this.chunks.get(chunk); }
+
+    public int getResultCount() {
+        int count = 0;
+        for (Results chunk : chunks) {
+            count += chunk.size();
+        }
+        return count;
+    }
+
+    public Set<Integer> getCaseIds() {
+        Set<Integer> caseIds = new LinkedHashSet<Integer>();
+        for (Results chunk : chunks) {
+            caseIds.addAll(chunk.getCaseIds());
+        }
+        return caseIds;
+    }
+
+    public synchronized boolean isScoped() {
+        return !scopeRun || scoped;
+    }
+
+    public synchronized void markScoped() throws IOException {
+        append(file, new JSONObject().put("scoped", true));
+        scoped = true;
+    }
+
+    public synchronized List<Integer> getPendingChunks() {
+        List<Integer> pending = new ArrayList<Integer>();
+        for (int i = done.nextClearBit(0); i < chunks.size(); i = done.nextClearBit(i + 1)) {
+            pending.add(i);
+        }
+        return pending;
+    }
+
+    public synchronized boolean isUploaded() {
+        return done.nextClearBit(0) >= chunks.size();
+    }
+
+    public synchronized void markDone(int chunk) throws IOException {
+        append(file, new JSONObject().put("done", chunk));
+        done.set(chunk);
+    }
+
+    static OutboxEntry write(File file, String host, String user, int runId, boolean closeRun, boolean scopeRun,
+                             String owner, File delta, List<Results> chunks) throws IOException {
+        JSONObject header = new JSONObject()
+                .put("host", host)
+                .put("user", user)
+                .put("run", runId)
+                .put("close", closeRun)
+                .put("scope", scopeRun)
+                .put("created", System.currentTimeMillis())
+                .put("owner", owner)
+                .put("delta", delta == null ? null : delta.getPath());
+        // Write under a temporary name so the worker never sees a half-written entry.
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        Writer w = new OutputStreamWriter(out, "UTF-8");
+        try {
+            w.write(header.toString());
+            w.write('\n');
+            for (Results chunk : chunks) {
+                w.write(new JSONObject().put("results", toJson(chunk)).toString());
+                w.write('\n');
+            }
+            w.flush();
+            // Otherwise a crash can keep the rename but lose the contents.
+            out.getFD().sync();
+        } finally {
+            w.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to create " + file);
+        }
+        return new OutboxEntry(file, header, chunks);
+    }
+
+    static OutboxEntry read(File file) throws IOException {
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = r.readLine();
+            if (line == null) {
+                throw new IOException("Empty outbox entry " + file);
+            }
+            JSONObject header;
+            try {
+                header = new JSONObject(line);
+            } catch (JSONException e) {
+                throw new IOException("Corrupt outbox entry " + file, e);
+            }
+            List<Results> chunks = new ArrayList<Results>();
+            BitSet done = new BitSet();
+            boolean scoped = false;
+            while ((line = r.readLine()) != null) {
+                JSONObject o;
+                try {
+                    o = new JSONObject(line);
+                } catch (JSONException e) {
+                    // a crash while appending an acknowledgement leaves a partial last line
+                    break;
+                }
+                if (o.has("results")) {
+                    chunks.add(fromJson(o.getJSONArray("results")));
+                } else if (o.has("done")) {
+                    done.set(o.getInt("done"));
+                } else if (o.has("scoped")) {
+                    scoped = true;
+                }
+            }
+            OutboxEntry entry = new OutboxEntry(file, header, chunks);
+            entry.done.or(done);
+            entry.scoped = scoped;
+            return entry;
+        } finally {
+            r.close();
+        }
+    }
+
+    private static void append(File file, JSONObject line) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write((line.toString() + "\n").getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static JSONArray toJson(Results results) {
+        JSONArray a = new JSONArray();
+        for (Result r : results.getResults()) {
+            JSONObject o = new JSONObject().put("c", r.getCaseId()).put("s", r.getStatus().getValue());
+            if (r.getComment() != null) {
+                o.put("m", r.getComment());
+            }
+            if (r.getElapsed() != null) {
+                o.put("e", r.getElapsed().doubleValue());
+            }
+            if (r.getAttachment() != null) {
+                o.put("a", r.getAttachment());
+            }
+            a.put(o);
+        }
+        return a;
+    }
+
+    private static Results fromJson(JSONArray a) {
+        Results results = new Results();
+        for (int i = 0; i < a.length(); i++) {
+            JSONObject o = a.getJSONObject(i);
+            Float elapsed = o.has("e") ? Float.valueOf((float) o.getDouble("e")) : null;
+            Result result = new Result(o.getInt("c"), CaseStatus.fromValue(o.getInt("s")), o.optString("m", null), elapsed);
+            result.setAttachment(o.optString("a", null));
+            results.addResult(result);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall-clock timings of the phases of a single publish, and counters of the work it did.
+ * Phases may overlap, so their sum can be larger than the total.
+ */
+public class PhaseTimer {
+    private final long started = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+    // The longest time spent in each phase across targets, comparable between builds.
+    private final Map<String, Long> categories = new LinkedHashMap<String, Long>();
+    private final Map<String, Long> counters = new LinkedHashMap<String, Long>();
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void stop(String phase, long start) {
+        stop("", phase, start);
+    }
+
+    /**
+     * @param prefix what the phase was done for, such as a target or a file pattern, or an empty string.
+     */
+    public synchronized void stop(String prefix, String phase, long start) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        phases.put(prefix + phase, millis);
+        Long longest = categories.get(phase);
+        categories.put(phase, longest == null ? millis : Math.max(longest, millis));
+    }
+
+    public synchronized void count(String counter, long n) {
+        Long count = counters.get(counter);
+        counters.put(counter, count == null ? n : count + n);
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<String, Long>(phases);
+    }
+
+    public synchronized Map<String, Long> getCategories() {
+        return new LinkedHashMap<String, Long>(categories);
+    }
+
+    public synchronized Map<String, Long> getCounters() {
+        return new LinkedHashMap<String, Long>(counters);
+    }
+
+    public long getTotal() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    public synchronized void report(PrintStream logger) {
+        logger.println("TestRail timings (total " + getTotal() + " ms):");
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            logger.println("  " + phase.getKey() + ": " + phase.getValue() + " ms");
+        }
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            logger.println("  " + counter.getKey() + ": " + counter.getValue());
+        }
+    }
+}
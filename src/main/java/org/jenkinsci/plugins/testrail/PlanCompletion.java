@@ -0,0 +1,59 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import static org.jenkinsci.plugins.testrail.Utils.*;
+
+/**
+ * Closes a test plan once the uploads of all of its runs have succeeded, for plans whose runs are
+ * uploaded in the background. If any upload fails, the plan is left open.
+ */
+final class PlanCompletion {
+    private final TestRailClient testrail;
+    private final int planId;
+    private int remaining;
+    private boolean failed;
+
+    PlanCompletion(TestRailClient testrail, int planId, int runs) {
+        this.testrail = testrail;
+        this.planId = planId;
+        this.remaining = runs;
+    }
+
+    /**
+     * Records that the upload of one of the plan's runs has finished.
+     */
+    void finished(boolean succeeded) {
+        boolean close;
+        synchronized (this) {
+            failed |= !succeeded;
+            close = --remaining == 0 && !failed;
+            if (remaining == 0 && failed) {
+                log("TestRail plan " + planId + " is left open because not all results were uploaded.");
+            }
+        }
+        if (close) {
+            try {
+                testrail.closePlan(planId);
+            } catch (Exception e) {
+                log("Failed to close TestRail plan " + planId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import org.jenkinsci.plugins.testrail.JunitResults.Failure;
+import org.jenkinsci.plugins.testrail.JunitResults.Testcase;
+import org.jenkinsci.plugins.testrail.JunitResults.Testsuite;
+import org.jenkinsci.plugins.testrail.TestRailObjects.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Maps parsed JUnit suites onto the sections and cases of a TestRail suite, adding the ones that are missing
+ * if asked to. Serializable so the mapping can also run on an agent.
+ */
+public class ResultMapper implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean createNewTestcases;
+
+    public ResultMapper(boolean createNewTestcases) {
+        this.createNewTestcases = createNewTestcases;
+    }
+
+    /**
+     * @return the results of all suites, or of the suites before the first one that failed to map.
+     */
+    public Results map(List<Testsuite> suites, ExistingTestCases existingCases, PrintStream logger) {
+        TestRailFlightRecorder.Event event = TestRailFlightRecorder.MAPPING.begin();
+        Results results = new Results();
+        try {
+            for (Testsuite suite : suites) {
+                results.merge(addSuite(suite, null, existingCases));
+            }
+        } catch (Exception e) {
+            logger.println("Failed to create missing Test Suites in TestRail.");
+            logger.println("EXCEPTION: " + e.getMessage());
+        }
+        if (event != null) {
+            event.commit(suites.size(), results.size());
+        }
+        return results;
+    }
+
+    public Results addSuite(Testsuite suite, String parentId, ExistingTestCases existingCases) throws IOException, TestRailException {
+        //figure out TR sectionID
+        int sectionId;
+        try {
+            sectionId = existingCases.getSectionId(suite.getName());
+        } catch (ElementNotFoundException e1) {
+            try {
+                sectionId = existingCases.addSection(suite.getName(), parentId);
+            } catch (ElementNotFoundException e) {
+                //listener.getLogger().println("Unable to add test section " + suite.getName());
+                //listener.getLogger().println(e.getMessage());
+                return null;
+            }
+        }
+
+        //if we have any subsections - process them
+        Results results = new Results();
+
+        if (suite.hasSuites()) {
+            for (Testsuite subsuite : suite.getSuites()) {
+                results.merge(addSuite(subsuite, String.valueOf(sectionId), existingCases));
+            }
+        }
+
+        if (suite.hasCases()) {
+            for (Testcase testcase : suite.getCases()) {
+                int caseId = 0;
+                boolean addResult = false;
+                try {
+                    caseId = existingCases.getCaseId(suite.getName(), testcase.getName());
+                    addResult = true;
+                } catch (ElementNotFoundException e) {
+                    if (this.createNewTestcases) {
+                        caseId = existingCases.addCase(testcase, sectionId);
+                        addResult = true;
+                    }
+                }
+                if (addResult) {
+                    CaseStatus caseStatus;
+                    Float caseTime = testcase.getTime();
+                    String caseComment = null;
+                    Failure caseFailure = testcase.getFailure();
+                    if (caseFailure != null) {
+                        caseStatus = CaseStatus.FAILED;
+                        caseComment = (caseFailure.getMessage() == null) ? caseFailure.getText()
+                                : (caseFailure.getText() == null) ? caseFailure.getMessage()
+                                : caseFailure.getMessage() + "\n" + caseFailure.getText();
+                    } else if (testcase.getSkipped() != null) {
+                        caseStatus = CaseStatus.UNTESTED;
+                    } else {
+                        caseStatus = CaseStatus.PASSED;
+                    }
+
+                    if (caseStatus != CaseStatus.UNTESTED) {
+                        results.addResult(new Result(caseId, caseStatus, caseComment, caseTime));
+                    }
+                }
+            }
+        }
+
+        return results;
+    }
+}
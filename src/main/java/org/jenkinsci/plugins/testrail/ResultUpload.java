@@ -0,0 +1,197 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Result;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Results;
+import org.jenkinsci.plugins.testrail.TestRailObjects.TestRailException;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.jenkinsci.plugins.testrail.Utils.*;
+
+/**
+ * Posts a spooled {@link OutboxEntry} to its TestRail run chunk by chunk and closes the run.
+ * Every accepted chunk is acknowledged in the outbox, so a retry only sends what is left.
+ *
+ * Attachments are uploaded once their chunk is accepted, at most
+ * {@code org.jenkinsci.plugins.testrail.ResultUpload.attachmentThreads} at a time across all uploads.
+ * They are best effort: a failed attachment is logged and not retried, so results are never posted twice.
+ */
+public class ResultUpload implements Callable<TestRailResponse> {
+    private static final int ATTACHMENT_THREADS = Integer.getInteger(ResultUpload.class.getName() + ".attachmentThreads", 4);
+    private static final ThreadPoolExecutor ATTACHMENTS = new ThreadPoolExecutor(ATTACHMENT_THREADS, ATTACHMENT_THREADS,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new NamingThreadFactory(new DaemonThreadFactory(), "TestRail attachment upload"));
+    static {
+        ATTACHMENTS.allowCoreThreadTimeOut(true);
+    }
+
+    private final TestRailClient testrail;
+    private final OutboxEntry entry;
+    private final PlanCompletion plan;
+    private boolean closed;
+
+    public ResultUpload(TestRailClient testrail, OutboxEntry entry) {
+        this(testrail, entry, null);
+    }
+
+    /**
+     * @param plan the plan to report to once this run of it is uploaded, or null.
+     */
+    ResultUpload(TestRailClient testrail, OutboxEntry entry, PlanCompletion plan) {
+        this.testrail = testrail;
+        this.entry = entry;
+        this.plan = plan;
+    }
+
+    public int getRunId() { return entry.getRunId(); }
+    public OutboxEntry getEntry() { return this.entry; }
+
+    public TestRailResponse uploadResults() throws IOException, TestRailException {
+        if (!entry.isScoped()) {
+            // TestRail rejects results for cases that aren't part of the run.
+            testrail.updateRunCases(entry.getRunId(), entry.getCaseIds());
+            entry.markScoped();
+        }
+        TestRailResponse response = null;
+        DeltaFilter delta = entry.getDeltaFilter();
+        List<Future<?>> attachments = new ArrayList<Future<?>>();
+        try {
+            for (int chunk : entry.getPendingChunks()) {
+                Results results = entry.getChunk(chunk);
+                TestRailFlightRecorder.Event event = TestRailFlightRecorder.UPLOAD_CHUNK.begin();
+                response = testrail.addResultsForCases(entry.getRunId(), results);
+                if (event != null) {
+                    event.commit(entry.getRunId(), chunk, results.size());
+                }
+                entry.markDone(chunk);
+                if (delta != null) {
+                    delta.commit(results);
+                }
+                // The next chunk is posted while this one's attachments are uploaded.
+                attachments.addAll(uploadAttachments(testrail, results, response));
+            }
+            awaitAttachments(attachments, entry.getRunId());
+        } finally {
+            for (Future<?> attachment : attachments) {
+                attachment.cancel(true);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Waits for attachment uploads, logging the ones that failed.
+     */
+    static void awaitAttachments(List<Future<?>> attachments, int runId) throws InterruptedIOException {
+        try {
+            for (Future<?> attachment : attachments) {
+                try {
+                    attachment.get();
+                } catch (ExecutionException e) {
+                    log("Failed to upload an attachment to TestRail run " + runId, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while uploading attachments to TestRail run " + runId);
+        }
+    }
+
+    /**
+     * Starts uploading the attachments of a chunk that TestRail has accepted.
+     */
+    static List<Future<?>> uploadAttachments(final TestRailClient testrail, Results results, TestRailResponse response) {
+        List<Future<?>> attachments = new ArrayList<Future<?>>();
+        JSONArray created = null;
+        for (int i = 0; i < results.size(); i++) {
+            final Result result = results.getResults().get(i);
+            if (result.getAttachment() == null) {
+                continue;
+            }
+            try {
+                if (created == null) {
+                    // TestRail returns the new results in the order they were posted.
+                    created = new JSONArray(response.getBody());
+                }
+                final int resultId = created.getJSONObject(i).getInt("id");
+                attachments.add(ATTACHMENTS.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        testrail.addAttachmentToResult(resultId, "case-" + result.getCaseId() + "-output.txt",
+                                result.getAttachment().getBytes(Charset.forName("UTF-8")));
+                        return null;
+                    }
+                }));
+            } catch (JSONException e) {
+                log("Cannot attach the output of case " + result.getCaseId() + " to its result", e);
+            }
+        }
+        return attachments;
+    }
+
+    public boolean closeRun() throws IOException, TestRailException {
+        if (entry.getCloseRun()) {
+            closed = testrail.closeRun(entry.getRunId());
+        } else {
+            closed = true;
+        }
+        return closed;
+    }
+
+    /**
+     * Drops the entry from the outbox if it went through completely and hands it back otherwise.
+     */
+    public void finish() {
+        TestRailOutbox outbox = TestRailOutbox.get();
+        if (closed && entry.isUploaded()) {
+            outbox.remove(entry);
+        }
+        outbox.release(entry);
+    }
+
+    public TestRailResponse call() throws IOException, TestRailException {
+        boolean succeeded = false;
+        try {
+            TestRailResponse response = uploadResults();
+            closeRun();
+            succeeded = true;
+            return response;
+        } finally {
+            finish();
+            if (plan != null) {
+                plan.finished(succeeded);
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.jenkinsci.plugins.testrail;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
@@ -25,6 +26,10 @@ import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.ByteArrayPartSource;
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
 
 import org.jenkinsci.plugins.testrail.JunitResults.Testcase;
 import org.jenkinsci.plugins.testrail.TestRailObjects.*;
@@ -38,31 +43,80 @@ import javax.xml.ws.http.HTTPException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.InterruptedException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import static org.jenkinsci.plugins.testrail.Utils.*;
 /**
  * Created by Drew on 3/19/14.
  */
 public class TestRailClient {
-    private String host;
-    private String user;
-    private String password;
+    // Timeouts in milliseconds, tunable with system properties of the same name prefixed with this class.
+    static final int CONNECT_TIMEOUT = Integer.getInteger(TestRailClient.class.getName() + ".connectTimeout", 30000);
+    static final int READ_TIMEOUT = Integer.getInteger(TestRailClient.class.getName() + ".readTimeout", 120000);
+    private static final int DEFAULT_RETRY_AFTER = 60;
+
+    private final String host;
+    private final String user;
+    private final String password;
+    private final TestRailClients.RateLimit rateLimit;
+    private final String owner;
+    private final PhaseTimer timer;
 
-    public void setHost(String host) { this.host = host; }
-    public void setUser(String user) { this.user = user; }
-    public void setPassword(String password) {this.password = password; }
     public String getHost() { return this.host; }
     public String getUser() { return this.user; }
     public String getPassword() { return this.password; }
 
+    /**
+     * Prefer {@link TestRailClients#get} on the controller, which reuses clients.
+     */
     public TestRailClient(String host, String user, String password) {
+        this(host, user, password, TestRailClients.getRateLimit(host), null, null);
+    }
+
+    private TestRailClient(String host, String user, String password, TestRailClients.RateLimit rateLimit,
+                           String owner, PhaseTimer timer) {
         this.host = host;
         this.user = user;
         this.password = password;
+        this.rateLimit = rateLimit;
+        this.owner = owner;
+        this.timer = timer;
+    }
+
+    /**
+     * @return a client whose requests are queued as the given owner's, usually a job's full name,
+     * so the {@link TestRailScheduler} can share TestRail fairly between jobs.
+     */
+    public TestRailClient withOwner(String owner) {
+        return new TestRailClient(host, user, password, rateLimit, owner, timer);
+    }
+
+    public String getOwner() { return this.owner; }
+
+    /**
+     * @return a client that also counts its calls, traffic and created cases in the given publish's timer.
+     */
+    public TestRailClient withTimer(PhaseTimer timer) {
+        return new TestRailClient(host, user, password, rateLimit, owner, timer);
+    }
+
+    private void count(String counter, long n) {
+        if (timer != null) {
+            timer.count(counter, n);
+        }
+    }
+
+    private void transferred(TestRailMetrics.Endpoint metrics, long sent, long received) {
+        metrics.transferred(sent, received);
+        count("bytes sent", Math.max(0, sent));
+        count("bytes received", received);
     }
 
     private HttpClient setUpHttpClient(HttpMethod method) {
-        HttpClient httpclient = new HttpClient();
+        HttpClient httpclient = new HttpClient(TestRailClients.getConnectionManager());
         httpclient.getParams().setAuthenticationPreemptive(true);
         httpclient.getState().setCredentials(
                 AuthScope.ANY,
@@ -73,32 +127,105 @@ public class TestRailClient {
         return httpclient;
     }
 
-    private TestRailResponse httpGet(String path) throws IOException {
-        TestRailResponse response;
+    /**
+     * Pauses all requests to this host for as long as a rate-limited response asks, a minute if it doesn't say.
+     */
+    private void rateLimited(TestRailResponse response) {
+        int seconds = response.getRetryAfter() != null ? response.getRetryAfter() : DEFAULT_RETRY_AFTER;
+        log("TestRail rate limit reached, retrying in " + seconds + "s");
+        rateLimit.pause(seconds);
+    }
+
+    private static Integer getRetryAfter(HttpMethod method) {
+        Header header = method.getResponseHeader("Retry-After");
+        if (header == null) {
+            return null;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(header.getValue().trim()));
+        } catch (NumberFormatException e) {
+            // An HTTP date instead of seconds; TestRail doesn't send those.
+            return null;
+        }
+    }
+
+    private interface Attempt {
+        TestRailResponse send(Transfer transfer) throws IOException;
+    }
+
+    /**
+     * Bytes sent and received by one attempt.
+     */
+    private static final class Transfer {
+        long sent;
+        long received;
+    }
+
+    /**
+     * Sends a request until it isn't rate limited, waiting for the {@link TestRailScheduler} before each attempt
+     * and recording every attempt in {@link TestRailMetrics}.
+     */
+    private TestRailResponse execute(String path, TestRailScheduler.Priority priority, Attempt attempt)
+            throws IOException {
+        TestRailMetrics.Endpoint metrics = TestRailMetrics.forPath(path);
+        TestRailResponse response = null;
 
         do {
-            response = httpGetInt(path);
-            if (response.getStatus() == 429) {
-                try {
-                    Thread.sleep(60000);
-                } catch (InterruptedException e) {
-                    log(e.toString());
+            if (response != null) {
+                metrics.retried();
+                count("retries", 1);
+            }
+            long waiting = System.nanoTime();
+            rateLimit.await();
+            metrics.slept(System.nanoTime() - waiting);
+            TestRailScheduler.get().acquire(owner, priority);
+            count("API calls", 1);
+            TestRailFlightRecorder.Event event = TestRailFlightRecorder.HTTP_CALL.begin();
+            Transfer transfer = new Transfer();
+            long started = System.nanoTime();
+            try {
+                response = attempt.send(transfer);
+            } catch (IOException e) {
+                metrics.failed(System.nanoTime() - started);
+                if (event != null) {
+                    event.commit(metrics.getName(), 0, transfer.sent, transfer.received);
                 }
+                throw e;
+            } finally {
+                TestRailScheduler.get().release();
+            }
+            metrics.completed(response.getStatus(), System.nanoTime() - started);
+            transferred(metrics, transfer.sent, transfer.received);
+            if (event != null) {
+                event.commit(metrics.getName(), response.getStatus(), transfer.sent, transfer.received);
             }
-       } while (response.getStatus() == 429);
+            if (response.getStatus() == 429) {
+                rateLimited(response);
+            }
+        } while (response.getStatus() == 429);
 
-       return response;
+        return response;
     }
 
-    private TestRailResponse httpGetInt(String path) throws IOException {
+    private TestRailResponse httpGet(final String path) throws IOException {
+        return execute(path, TestRailScheduler.Priority.NORMAL, new Attempt() {
+            public TestRailResponse send(Transfer transfer) throws IOException {
+                return httpGetInt(path, transfer);
+            }
+        });
+    }
+
+    private TestRailResponse httpGetInt(String path, Transfer transfer) throws IOException {
         TestRailResponse result;
         GetMethod get = new GetMethod(host + "/" + path);
         HttpClient httpclient = setUpHttpClient(get);
 
         try {
             Integer status = httpclient.executeMethod(get);
-            String body = new String(get.getResponseBody(), get.getResponseCharSet());
-            result = new TestRailResponse(status, body);
+            byte[] bytes = get.getResponseBody();
+            transfer.received = bytes.length;
+            String body = new String(bytes, get.getResponseCharSet());
+            result = new TestRailResponse(status, body, getRetryAfter(get));
         } finally {
             get.releaseConnection();
         }
@@ -108,18 +235,16 @@ public class TestRailClient {
 
     private TestRailResponse httpPost(String path, String payload)
         throws UnsupportedEncodingException, IOException, HTTPException, TestRailException {
-        TestRailResponse response;
+        return httpPost(path, payload, TestRailScheduler.Priority.NORMAL);
+    }
 
-        do {
-            response = httpPostInt(path, payload);
-            if (response.getStatus() == 429) {
-                try {
-                    Thread.sleep(60000);
-                } catch (InterruptedException e) {
-                    log(e.toString());
-                }
+    private TestRailResponse httpPost(final String path, final String payload, TestRailScheduler.Priority priority)
+        throws UnsupportedEncodingException, IOException, HTTPException, TestRailException {
+        TestRailResponse response = execute(path, priority, new Attempt() {
+            public TestRailResponse send(Transfer transfer) throws IOException {
+                return httpPostInt(path, payload, transfer);
             }
-        } while (response.getStatus() == 429);
+        });
 
         if (response.getStatus() != 200) {
             // any status code other than 200 is an error
@@ -128,7 +253,7 @@ public class TestRailClient {
         return response;
     }
 
-    private TestRailResponse httpPostInt(String path, String payload)
+    private TestRailResponse httpPostInt(String path, String payload, Transfer transfer)
             throws UnsupportedEncodingException, IOException, HTTPException {
         TestRailResponse result;
         PostMethod post = new PostMethod(host + "/" + path);
@@ -142,8 +267,11 @@ public class TestRailClient {
             );
             post.setRequestEntity(requestEntity);
             Integer status = httpclient.executeMethod(post);
-            String body = new String(post.getResponseBody(), post.getResponseCharSet());
-            result = new TestRailResponse(status, body);
+            byte[] bytes = post.getResponseBody();
+            transfer.sent = requestEntity.getContentLength();
+            transfer.received = bytes.length;
+            String body = new String(bytes, post.getResponseCharSet());
+            result = new TestRailResponse(status, body, getRetryAfter(post));
         } finally {
             post.releaseConnection();
         }
@@ -153,7 +281,7 @@ public class TestRailClient {
 
     public boolean serverReachable() throws IOException {
         boolean result = false;
-        HttpClient httpclient = new HttpClient();
+        HttpClient httpclient = new HttpClient(TestRailClients.getConnectionManager());
         GetMethod get = new GetMethod(host);
         try {
             httpclient.executeMethod(get);
@@ -167,12 +295,12 @@ public class TestRailClient {
     }
 
     public boolean authenticationWorks() throws IOException {
-        TestRailResponse response = httpGet("/index.php?/api/v2/get_projects");
+        TestRailResponse response = httpGet("index.php?/api/v2/get_projects");
         return (200 == response.getStatus());
     }
 
     public Project[] getProjects() throws IOException, ElementNotFoundException {
-        String body = httpGet("/index.php?/api/v2/get_projects").getBody();
+        String body = httpGet("index.php?/api/v2/get_projects").getBody();
         JSONArray json = new JSONArray(body);
         Project[] projects = new Project[json.length()];
         for (int i = 0; i < json.length(); i++) {
@@ -186,18 +314,17 @@ public class TestRailClient {
     }
 
     public int getProjectId(String projectName) throws IOException, ElementNotFoundException {
-        Project[] projects = getProjects();
-        for(int i = 0; i < projects.length; i++) {
-            if (projects[i].getName().equals(projectName)) {
-                return projects[i].getId();
-            }
+        try {
+            return TestRailLookups.resolveProjectId(this, projectName);
+        } catch (IOException | ElementNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
         }
-
-        throw new ElementNotFoundException(projectName);
     }
 
     public Suite[] getSuites(int projectId) throws IOException, ElementNotFoundException {
-        String body = httpGet("/index.php?/api/v2/get_suites/" + projectId).getBody();
+        String body = httpGet("index.php?/api/v2/get_suites/" + projectId).getBody();
 
         JSONArray json;
         try {
@@ -276,8 +403,9 @@ public class TestRailClient {
             throws IOException, ElementNotFoundException, TestRailException {
         //Section section = new Section();
         String payload = new JSONObject().put("name", sectionName).put("suite_id", suiteId).put("parent_id", parentId).toString();
-        String body = httpPost("index.php?/api/v2/add_section/" + projectId , payload).getBody();
+        String body = httpPost("index.php?/api/v2/add_section/" + projectId , payload, TestRailScheduler.Priority.BULK).getBody();
         JSONObject o = new JSONObject(body);
+        count("sections created", 1);
 
         return createSectionFromJSON(o);
     }
@@ -300,8 +428,9 @@ public class TestRailClient {
             payload.put("refs", caseToAdd.getRefs());
         }
 
-        String body = httpPost("index.php?/api/v2/add_case/" + sectionId, payload.toString()).getBody();
+        String body = httpPost("index.php?/api/v2/add_case/" + sectionId, payload.toString(), TestRailScheduler.Priority.BULK).getBody();
         Case c = createCaseFromJson(new JSONObject(body));
+        count("cases created", 1);
         return c;
     }
 
@@ -317,17 +446,149 @@ public class TestRailClient {
 
         String payload = new JSONObject().put("results", a).toString();
         log(payload);
-        TestRailResponse response = httpPost("index.php?/api/v2/add_results_for_cases/" + runId, payload);
+        // Failures are what people wait for; chunks of passes don't hold up anyone else's.
+        TestRailScheduler.Priority priority = results.allPassed()
+                ? TestRailScheduler.Priority.NORMAL : TestRailScheduler.Priority.HIGH;
+        TestRailResponse response = httpPost("index.php?/api/v2/add_results_for_cases/" + runId, payload, priority);
         return response;
     }
 
+    /**
+     * Uploads a file and attaches it to a result.
+     */
+    public void addAttachmentToResult(int resultId, final String fileName, final byte[] content)
+            throws IOException, TestRailException {
+        final String path = "index.php?/api/v2/add_attachment_to_result/" + resultId;
+        TestRailResponse response = execute(path, TestRailScheduler.Priority.NORMAL, new Attempt() {
+            public TestRailResponse send(Transfer transfer) throws IOException {
+                return httpPostAttachmentInt(path, fileName, content, transfer);
+            }
+        });
+
+        if (response.getStatus() != 200) {
+            throw new TestRailException("Posting to " + path + " returned an error! Response from TestRail is: \n" + response.getBody());
+        }
+    }
+
+    private TestRailResponse httpPostAttachmentInt(String path, String fileName, byte[] content,
+            Transfer transfer) throws IOException {
+        TestRailResponse result;
+        PostMethod post = new PostMethod(host + "/" + path);
+        HttpClient httpclient = setUpHttpClient(post);
+        // The multipart entity sets its own content type with the boundary.
+        post.removeRequestHeader("Content-Type");
+
+        try {
+            Part[] parts = { new FilePart("attachment", new ByteArrayPartSource(fileName, content), "text/plain", "UTF-8") };
+            MultipartRequestEntity requestEntity = new MultipartRequestEntity(parts, post.getParams());
+            post.setRequestEntity(requestEntity);
+            Integer status = httpclient.executeMethod(post);
+            byte[] bytes = post.getResponseBody();
+            transfer.sent = requestEntity.getContentLength();
+            transfer.received = bytes.length;
+            String body = new String(bytes, post.getResponseCharSet());
+            result = new TestRailResponse(status, body, getRetryAfter(post));
+        } finally {
+            post.releaseConnection();
+        }
+
+        return result;
+    }
+
     public int addRun(int projectId, int suiteId, String milestoneID, String description)
             throws IOException, TestRailException {
-        String payload = new JSONObject().put("suite_id", suiteId).put("description", description).put("milestone_id", milestoneID).toString();
-        String body = httpPost("index.php?/api/v2/add_run/" + projectId, payload).getBody();
+        return addRun(projectId, suiteId, milestoneID, description, true, null);
+    }
+
+    /**
+     * Creates a run. With includeAll false the run only contains the given cases
+     * instead of every case in the suite.
+     */
+    public int addRun(int projectId, int suiteId, String milestoneID, String description,
+                      boolean includeAll, Collection<Integer> caseIds)
+            throws IOException, TestRailException {
+        JSONObject payload = new JSONObject().put("suite_id", suiteId).put("description", description).put("milestone_id", milestoneID);
+        payload.put("include_all", includeAll);
+        if (!includeAll) {
+            payload.put("case_ids", caseIds == null ? new JSONArray() : new JSONArray(caseIds));
+        }
+        String body = httpPost("index.php?/api/v2/add_run/" + projectId, payload.toString()).getBody();
         return new JSONObject(body).getInt("id");
     }
 
+    /**
+     * Creates a test plan with all of its entries in one request, and sets the id of every run
+     * of the entries from the created plan. Runs of an entry are told apart by their configurations.
+     *
+     * @return the id of the plan.
+     */
+    public int addPlan(int projectId, String name, String milestoneID, String description, List<PlanEntry> entries)
+            throws IOException, TestRailException {
+        JSONArray entriesJson = new JSONArray();
+        for (PlanEntry entry : entries) {
+            JSONObject entryJson = new JSONObject().put("suite_id", entry.getSuiteId())
+                    .put("include_all", false).put("case_ids", new JSONArray(entry.getCaseIds()));
+            Set<Integer> configIds = new LinkedHashSet<Integer>();
+            JSONArray runsJson = new JSONArray();
+            for (Run run : entry.getRuns()) {
+                configIds.addAll(run.getConfigIds());
+                runsJson.put(new JSONObject().put("include_all", false)
+                        .put("case_ids", new JSONArray(run.getCaseIds()))
+                        .put("config_ids", new JSONArray(run.getConfigIds())));
+            }
+            if (!configIds.isEmpty()) {
+                entryJson.put("config_ids", new JSONArray(configIds)).put("runs", runsJson);
+            }
+            entriesJson.put(entryJson);
+        }
+        JSONObject payload = new JSONObject().put("name", name).put("description", description)
+                .put("milestone_id", milestoneID).put("entries", entriesJson);
+        String body = httpPost("index.php?/api/v2/add_plan/" + projectId, payload.toString()).getBody();
+
+        JSONObject plan = new JSONObject(body);
+        JSONArray createdEntries = plan.getJSONArray("entries");
+        for (int i = 0; i < entries.size(); i++) {
+            JSONArray createdRuns = createdEntries.getJSONObject(i).getJSONArray("runs");
+            for (Run run : entries.get(i).getRuns()) {
+                for (int j = 0; j < createdRuns.length(); j++) {
+                    JSONObject createdRun = createdRuns.getJSONObject(j);
+                    if (entries.get(i).getRuns().size() == 1 || sameConfigs(run.getConfigIds(), createdRun.optJSONArray("config_ids"))) {
+                        run.setId(createdRun.getInt("id"));
+                        break;
+                    }
+                }
+                if (run.getId() == 0) {
+                    throw new TestRailException("TestRail didn't create a run for configurations " + run.getConfigIds()
+                            + " of suite " + entries.get(i).getSuiteId());
+                }
+            }
+        }
+        return plan.getInt("id");
+    }
+
+    private static boolean sameConfigs(List<Integer> configIds, JSONArray created) {
+        Set<Integer> createdIds = new HashSet<Integer>();
+        for (int i = 0; created != null && i < created.length(); i++) {
+            createdIds.add(created.getInt(i));
+        }
+        return createdIds.equals(new HashSet<Integer>(configIds));
+    }
+
+    public boolean closePlan(int planId)
+            throws IOException, TestRailException {
+        int status = httpPost("index.php?/api/v2/close_plan/" + planId, "").getStatus();
+        return (200 == status);
+    }
+
+    /**
+     * Replaces the cases of a run created with include_all set to false.
+     */
+    public void updateRunCases(int runId, Collection<Integer> caseIds)
+            throws IOException, TestRailException {
+        String payload = new JSONObject().put("include_all", false).put("case_ids", new JSONArray(caseIds)).toString();
+        httpPost("index.php?/api/v2/update_run/" + runId, payload);
+    }
+
     public Milestone[] getMilestones(int projectId) throws IOException, ElementNotFoundException {
         String body = httpGet("index.php?/api/v2/get_milestones/" + projectId).getBody();
         JSONArray json;
@@ -348,12 +609,13 @@ public class TestRailClient {
     }
 
     public String getMilestoneID(String milesoneName, int projectId) throws IOException, ElementNotFoundException {
-      for (Milestone mstone: getMilestones(projectId)) {
-         if (mstone.getName().equals(milesoneName)) {
-             return mstone.getId();
-         }
-      }
-      throw new ElementNotFoundException("Milestone id not found.");
+        try {
+            return TestRailLookups.resolveMilestoneId(this, projectId, milesoneName);
+        } catch (IOException | ElementNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
     }
 
     public boolean closeRun(int runId)
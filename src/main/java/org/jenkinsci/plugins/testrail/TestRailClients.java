@@ -0,0 +1,157 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of immutable {@link TestRailClient}s, one per host and credentials, so concurrent builds and
+ * form validation never share mutable client state. All clients share one connection pool, and the
+ * clients of a host share its rate limit: once TestRail answers 429, every request to that host waits.
+ *
+ * The pool can be tuned with the
+ * {@code org.jenkinsci.plugins.testrail.TestRailClients.maxConnectionsPerHost} and
+ * {@code org.jenkinsci.plugins.testrail.TestRailClients.maxConnections} system properties.
+ */
+public final class TestRailClients {
+    private static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger(TestRailClients.class.getName() + ".maxConnectionsPerHost", 20);
+    private static final int MAX_CONNECTIONS = Integer.getInteger(TestRailClients.class.getName() + ".maxConnections", 100);
+    // Form validation creates a client for whatever is typed, so the registries are trimmed once they grow this big.
+    private static final int MAX_CLIENTS = 100;
+    // A host's rate limit is only forgotten once nothing has talked to it for this long.
+    private static final long RATE_LIMIT_IDLE = TimeUnit.MINUTES.toNanos(10);
+
+    private static final MultiThreadedHttpConnectionManager CONNECTIONS = new MultiThreadedHttpConnectionManager();
+    static {
+        CONNECTIONS.getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+        CONNECTIONS.getParams().setMaxTotalConnections(MAX_CONNECTIONS);
+        // Without timeouts a TestRail server that stops answering would block the calling thread forever.
+        CONNECTIONS.getParams().setConnectionTimeout(TestRailClient.CONNECT_TIMEOUT);
+        CONNECTIONS.getParams().setSoTimeout(TestRailClient.READ_TIMEOUT);
+    }
+
+    private static final ConcurrentMap<List<String>, TestRailClient> CLIENTS = new ConcurrentHashMap<List<String>, TestRailClient>();
+    // Least recently looked up first.
+    private static final Map<String, RateLimit> RATE_LIMITS = new LinkedHashMap<String, RateLimit>(16, 0.75f, true);
+
+    private TestRailClients() {
+    }
+
+    public static TestRailClient get(String host, String user, String password) {
+        List<String> key = Arrays.asList(host, user, password);
+        TestRailClient client = CLIENTS.get(key);
+        if (client == null) {
+            if (CLIENTS.size() >= MAX_CLIENTS) {
+                CLIENTS.clear();
+            }
+            client = new TestRailClient(host, user, password);
+            TestRailClient existing = CLIENTS.putIfAbsent(key, client);
+            if (existing != null) {
+                client = existing;
+            }
+        }
+        return client;
+    }
+
+    static HttpConnectionManager getConnectionManager() {
+        return CONNECTIONS;
+    }
+
+    static RateLimit getRateLimit(String host) {
+        String key = host == null ? "" : host;
+        synchronized (RATE_LIMITS) {
+            RateLimit rateLimit = RATE_LIMITS.get(key);
+            if (rateLimit == null) {
+                evictIdleRateLimits();
+                rateLimit = new RateLimit();
+                RATE_LIMITS.put(key, rateLimit);
+            }
+            return rateLimit;
+        }
+    }
+
+    /**
+     * Forgets the least recently used hosts that are neither paused nor talked to lately, until there is room
+     * for another. Hosts in use are kept however many there are, so all of their clients keep sharing one pause.
+     */
+    private static void evictIdleRateLimits() {
+        Iterator<RateLimit> oldest = RATE_LIMITS.values().iterator();
+        while (RATE_LIMITS.size() >= MAX_CLIENTS && oldest.hasNext()) {
+            if (oldest.next().isIdle(RATE_LIMIT_IDLE)) {
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+     * The pause a TestRail host asked for, shared by everything talking to it.
+     */
+    static final class RateLimit {
+        private long pausedUntil = System.nanoTime();
+        private long lastUsed = System.nanoTime();
+
+        synchronized void pause(int seconds) {
+            lastUsed = System.nanoTime();
+            pausedUntil = Math.max(pausedUntil, lastUsed + TimeUnit.SECONDS.toNanos(seconds));
+        }
+
+        /**
+         * @return true if the host isn't paused and nothing waited for it within the given nanoseconds.
+         */
+        synchronized boolean isIdle(long nanos) {
+            long now = System.nanoTime();
+            return pausedUntil - now <= 0 && now - lastUsed > nanos;
+        }
+
+        /**
+         * Waits until the host accepts requests again.
+         *
+         * @throws InterruptedIOException if the thread is interrupted, for instance because the build was aborted.
+         */
+        void await() throws InterruptedIOException {
+            while (true) {
+                long remaining;
+                synchronized (this) {
+                    lastUsed = System.nanoTime();
+                    remaining = pausedUntil - lastUsed;
+                }
+                if (remaining <= 0) {
+                    return;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the TestRail rate limit");
+                }
+            }
+        }
+    }
+}
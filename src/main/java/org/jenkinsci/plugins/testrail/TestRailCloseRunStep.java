@@ -0,0 +1,142 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import com.google.inject.Inject;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.testrail.TestRailObjects.TestRailException;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes a run created by {@link TestRailCreateRunStep} once every branch has appended its results.
+ * Results for the run that are still in the outbox, because a branch uploads them in the background
+ * or an upload failed, are uploaded first, so they aren't rejected by the closed run.
+ */
+public class TestRailCloseRunStep extends AbstractStepImpl {
+    private final int testrailRunId;
+
+    @DataBoundConstructor
+    public TestRailCloseRunStep(int testrailRunId) {
+        this.testrailRunId = testrailRunId;
+    }
+
+    public int getTestrailRunId() {
+        return this.testrailRunId;
+    }
+
+    public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<Void> {
+        private static final long serialVersionUID = 1L;
+        // How long to wait for background uploads to the run before giving up on closing it.
+        private static final long FLUSH_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+        @Inject
+        private transient TestRailCloseRunStep step;
+
+        @StepContextParameter
+        private transient Run<?, ?> run;
+
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        @Override
+        protected Void run() throws Exception {
+            TestRailClient testrail = Jenkins.getActiveInstance().getDescriptorByType(TestRailNotifier.DescriptorImpl.class).getTestrailInstance()
+                    .withOwner(run.getParent().getFullName());
+            flush(testrail, step.getTestrailRunId());
+            testrail.closeRun(step.getTestrailRunId());
+            listener.getLogger().println("Closed TestRail run " + step.getTestrailRunId() + ".");
+            return null;
+        }
+
+        /**
+         * Uploads the outbox entries for the run that nobody is working on and waits for the others.
+         */
+        private void flush(TestRailClient testrail, int runId)
+                throws IOException, InterruptedException, TestRailException {
+            TestRailOutbox outbox = TestRailOutbox.get();
+            long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+            boolean waiting = false;
+            while (true) {
+                for (File file : outbox.list()) {
+                    OutboxEntry entry;
+                    try {
+                        entry = outbox.claim(file);
+                    } catch (IOException e) {
+                        // the outbox worker sets it aside
+                        continue;
+                    }
+                    if (entry == null) {
+                        continue;
+                    }
+                    if (entry.getRunId() != runId || !entry.getHost().equals(testrail.getHost())) {
+                        outbox.release(entry);
+                        continue;
+                    }
+                    listener.getLogger().println("Uploading " + entry.getResultCount() + " results still queued for TestRail run " + runId + ".");
+                    ResultUpload upload = new ResultUpload(testrail, entry);
+                    try {
+                        upload.uploadResults();
+                        upload.closeRun();
+                    } finally {
+                        upload.finish();
+                    }
+                }
+                if (!outbox.isUploading(testrail.getHost(), runId)) {
+                    return;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Results for TestRail run " + runId + " are still being uploaded, so it was left open.");
+                }
+                if (!waiting) {
+                    listener.getLogger().println("Waiting for results still being uploaded to TestRail run " + runId + ".");
+                    waiting = true;
+                }
+                Thread.sleep(TimeUnit.SECONDS.toMillis(5));
+            }
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "testRailCloseRun";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Close a TestRail run";
+        }
+    }
+}
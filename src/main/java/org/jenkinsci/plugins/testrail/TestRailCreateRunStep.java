@@ -0,0 +1,142 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import com.google.inject.Inject;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Creates a TestRail run and returns its ID, so parallel branches can all append their results
+ * to it with {@code testRail(testrailRunId: ...)} before {@link TestRailCloseRunStep} closes it.
+ */
+public class TestRailCreateRunStep extends AbstractStepImpl {
+    private final int testrailProject;
+    private final int testrailSuite;
+    private String testrailProjectName;
+    private String testrailSuiteName;
+    private String testrailMilestone;
+    private String description;
+
+    @DataBoundConstructor
+    public TestRailCreateRunStep(int testrailProject, int testrailSuite) {
+        this.testrailProject = testrailProject;
+        this.testrailSuite = testrailSuite;
+    }
+
+    public int getTestrailProject() {
+        return this.testrailProject;
+    }
+
+    public int getTestrailSuite() {
+        return this.testrailSuite;
+    }
+
+    @DataBoundSetter
+    public void setTestrailProjectName(String name) {
+        this.testrailProjectName = name;
+    }
+
+    public String getTestrailProjectName() {
+        return this.testrailProjectName;
+    }
+
+    @DataBoundSetter
+    public void setTestrailSuiteName(String name) {
+        this.testrailSuiteName = name;
+    }
+
+    public String getTestrailSuiteName() {
+        return this.testrailSuiteName;
+    }
+
+    @DataBoundSetter
+    public void setTestrailMilestone(String milestone) {
+        this.testrailMilestone = milestone;
+    }
+
+    public String getTestrailMilestone() {
+        return this.testrailMilestone;
+    }
+
+    @DataBoundSetter
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        @Inject
+        private transient TestRailCreateRunStep step;
+
+        @StepContextParameter
+        private transient Run<?, ?> run;
+
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        @Override
+        protected Integer run() throws Exception {
+            TestRailClient testrail = Jenkins.getActiveInstance().getDescriptorByType(TestRailNotifier.DescriptorImpl.class).getTestrailInstance()
+                    .withOwner(run.getParent().getFullName());
+            String description = step.getDescription() != null ? step.getDescription()
+                    : "Automated results from Jenkins: " + run.getFullDisplayName();
+            // Pipeline arguments are already interpolated, so there are no variables left to expand.
+            TestRailTarget target = new TestRailTarget(step.getTestrailProject(), step.getTestrailSuite());
+            target.setTestrailProjectName(step.getTestrailProjectName());
+            target.setTestrailSuiteName(step.getTestrailSuiteName());
+            target.setTestrailMilestone(step.getTestrailMilestone());
+            target = target.resolve(testrail, new EnvVars());
+            int runId = testrail.addRun(target.getTestrailProject(), target.getTestrailSuite(), target.getTestrailMilestone(), description);
+            listener.getLogger().println("Created TestRail run " + runId + ".");
+            return runId;
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "testRailCreateRun";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Create a TestRail run";
+        }
+    }
+}
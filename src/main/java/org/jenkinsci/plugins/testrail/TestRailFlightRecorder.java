@@ -0,0 +1,173 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events for TestRail publishing, so a recording shows API calls, result file parsing,
+ * mapping and uploads alongside GC and thread activity. The plugin is built for Java 7, so the event types are
+ * defined at runtime through {@code jdk.jfr.EventFactory} when the JVM has it (Java 8u262 and later), and
+ * everything here does nothing otherwise. While an event isn't enabled in a recording, {@link EventType#begin()}
+ * only checks that and returns null.
+ */
+public final class TestRailFlightRecorder {
+    public static final EventType HTTP_CALL = define("HttpCall", "TestRail API Call",
+            String.class, "endpoint", "Endpoint",
+            int.class, "status", "Status",
+            long.class, "bytesSent", "Bytes Sent",
+            long.class, "bytesReceived", "Bytes Received");
+    public static final EventType PARSE = define("Parse", "TestRail Result File Parse",
+            String.class, "file", "File",
+            long.class, "size", "Size",
+            int.class, "suites", "Suites");
+    public static final EventType MAPPING = define("Mapping", "TestRail Mapping",
+            int.class, "suites", "Suites",
+            int.class, "results", "Results");
+    public static final EventType UPLOAD_CHUNK = define("UploadChunk", "TestRail Upload Chunk",
+            int.class, "runId", "Run ID",
+            int.class, "chunk", "Chunk",
+            int.class, "results", "Results");
+
+    private static Method create;
+    private static Method getEventType;
+    private static Method isEnabled;
+    private static Method newEvent;
+    private static Method begin;
+    private static Method end;
+    private static Method set;
+    private static Method commit;
+    private static Constructor<?> annotationElement;
+    private static Constructor<?> valueDescriptor;
+    private static Class<?> name;
+    private static Class<?> label;
+    private static Class<?> category;
+
+    private TestRailFlightRecorder() {
+    }
+
+    private static synchronized boolean available() {
+        if (create != null) {
+            return true;
+        }
+        try {
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+            name = Class.forName("jdk.jfr.Name");
+            label = Class.forName("jdk.jfr.Label");
+            category = Class.forName("jdk.jfr.Category");
+            getEventType = eventFactory.getMethod("getEventType");
+            isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+            newEvent = eventFactory.getMethod("newEvent");
+            begin = event.getMethod("begin");
+            end = event.getMethod("end");
+            set = event.getMethod("set", int.class, Object.class);
+            commit = event.getMethod("commit");
+            create = eventFactory.getMethod("create", List.class, List.class);
+            return true;
+        } catch (Exception e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param fields the type, name and label of each field, in the order {@link Event#commit} takes their values.
+     */
+    private static EventType define(String eventName, String eventLabel, Object... fields) {
+        if (!available()) {
+            return new EventType(null, null);
+        }
+        try {
+            List<Object> annotations = new ArrayList<Object>();
+            annotations.add(annotationElement.newInstance(name, TestRailMetrics.DOMAIN + "." + eventName));
+            annotations.add(annotationElement.newInstance(label, eventLabel));
+            annotations.add(annotationElement.newInstance(category, new String[] { "Jenkins", "TestRail" }));
+            List<Object> values = new ArrayList<Object>();
+            for (int i = 0; i < fields.length; i += 3) {
+                List<Object> fieldLabel = Collections.singletonList(annotationElement.newInstance(label, fields[i + 2]));
+                values.add(valueDescriptor.newInstance(fields[i], fields[i + 1], fieldLabel));
+            }
+            Object factory = create.invoke(null, annotations, values);
+            return new EventType(factory, getEventType.invoke(factory));
+        } catch (Exception e) {
+            Utils.log("Could not define the " + eventLabel + " flight recorder event: " + e);
+            return new EventType(null, null);
+        }
+    }
+
+    public static final class EventType {
+        private final Object factory;
+        private final Object type;
+
+        EventType(Object factory, Object type) {
+            this.factory = factory;
+            this.type = type;
+        }
+
+        /**
+         * @return a started event, or null if no recording has this event enabled.
+         */
+        public Event begin() {
+            if (factory == null) {
+                return null;
+            }
+            try {
+                if (!(Boolean) isEnabled.invoke(type)) {
+                    return null;
+                }
+                Object event = newEvent.invoke(factory);
+                begin.invoke(event);
+                return new Event(event);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    public static final class Event {
+        private final Object event;
+
+        Event(Object event) {
+            this.event = event;
+        }
+
+        /**
+         * Ends the event and records it with the given field values.
+         */
+        public void commit(Object... values) {
+            try {
+                end.invoke(event);
+                for (int i = 0; i < values.length; i++) {
+                    set.invoke(event, i, values[i]);
+                }
+                commit.invoke(event);
+            } catch (Exception e) {
+                // Recording is best effort and must never fail a publish.
+            }
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildWrapperDescriptor;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildWrapper;
+import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.testrail.JunitResults.JUnitResults;
+import org.jenkinsci.plugins.testrail.TestRailObjects.ElementNotFoundException;
+import org.jenkinsci.plugins.testrail.TestRailObjects.ExistingTestCases;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Result;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Results;
+import org.jenkinsci.plugins.testrail.TestRailObjects.TestRailException;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.servlet.ServletException;
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens a TestRail run when the wrapped steps start and uploads results while they are still running:
+ * the workspace is polled for result files that have settled since the last poll, and only the results
+ * that are new or changed are uploaded. The run is closed when the wrapped steps end.
+ *
+ * The run ID is exported as {@code TESTRAIL_RUN_ID}.
+ *
+ * Polls run on their own {@code org.jenkinsci.plugins.testrail.TestRailLiveTail.pollThreads} threads, two by
+ * default, since they parse files and wait on TestRail, which would hold up Jenkins' shared timer.
+ */
+public class TestRailLiveTail extends SimpleBuildWrapper {
+    static final int DEFAULT_POLL_INTERVAL = 60;
+    private static final int POLL_THREADS = Integer.getInteger(TestRailLiveTail.class.getName() + ".pollThreads", 2);
+    private static final ScheduledThreadPoolExecutor POLLER = new ScheduledThreadPoolExecutor(Math.max(1, POLL_THREADS),
+            new NamingThreadFactory(new DaemonThreadFactory(), "TestRail live tail"));
+    static {
+        POLLER.setRemoveOnCancelPolicy(true);
+    }
+
+    // Tails of the builds that are running, so their disposers can find them.
+    private static final Map<String, Tail> TAILS = new ConcurrentHashMap<String, Tail>();
+
+    private final int testrailProject;
+    private final int testrailSuite;
+    private final String junitResultsGlob;
+    private String testrailMilestone;
+    private boolean createNewTestcases;
+    private int pollInterval = DEFAULT_POLL_INTERVAL;
+
+    @DataBoundConstructor
+    public TestRailLiveTail(int testrailProject, int testrailSuite, String junitResultsGlob) {
+        this.testrailProject = testrailProject;
+        this.testrailSuite = testrailSuite;
+        this.junitResultsGlob = junitResultsGlob;
+    }
+
+    public int getTestrailProject() {
+        return this.testrailProject;
+    }
+
+    public int getTestrailSuite() {
+        return this.testrailSuite;
+    }
+
+    public String getJunitResultsGlob() {
+        return this.junitResultsGlob;
+    }
+
+    @DataBoundSetter
+    public void setTestrailMilestone(String milestone) {
+        this.testrailMilestone = milestone;
+    }
+
+    public String getTestrailMilestone() {
+        return this.testrailMilestone;
+    }
+
+    @DataBoundSetter
+    public void setCreateNewTestcases(boolean createNewTestcases) {
+        this.createNewTestcases = createNewTestcases;
+    }
+
+    public boolean getCreateNewTestcases() {
+        return this.createNewTestcases;
+    }
+
+    @DataBoundSetter
+    public void setPollInterval(int pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public int getPollInterval() {
+        return this.pollInterval;
+    }
+
+    protected Object readResolve() {
+        if (pollInterval == 0) {
+            pollInterval = DEFAULT_POLL_INTERVAL;
+        }
+        return this;
+    }
+
+    @Override
+    public void setUp(Context context, Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener,
+                      EnvVars initialEnvironment) throws IOException, InterruptedException {
+        TestRailClient testrail = Jenkins.getActiveInstance().getDescriptorByType(TestRailNotifier.DescriptorImpl.class).getTestrailInstance()
+                .withOwner(build.getParent().getFullName());
+        PrintStream logger = listener.getLogger();
+
+        ExistingTestCases testCases;
+        int runId;
+        try {
+            testCases = new ExistingTestCases(testrail, testrailProject, testrailSuite);
+            // The run starts empty; cases are added as their results come in.
+            runId = testrail.addRun(testrailProject, testrailSuite, testrailMilestone,
+                    "Live results from Jenkins: " + build.getFullDisplayName(), false, null);
+        } catch (ElementNotFoundException e) {
+            throw new IOException("Cannot find project or suite on TestRail server. Please check your Jenkins job and system configurations.", e);
+        } catch (TestRailException e) {
+            throw new IOException("Error creating TestRail run: " + e.getMessage(), e);
+        }
+        logger.println("Streaming results from " + junitResultsGlob + " to TestRail run " + runId + ".");
+        context.env("TESTRAIL_RUN_ID", String.valueOf(runId));
+
+        String key = build.getExternalizableId() + "#" + runId;
+        final Tail tail = new Tail(testrail, runId, workspace, junitResultsGlob, testCases,
+                new ResultMapper(createNewTestcases), logger);
+        tail.future = POLLER.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                tail.pollQuietly();
+            }
+        }, pollInterval, pollInterval, TimeUnit.SECONDS);
+        TAILS.put(key, tail);
+        context.setDisposer(new LiveTailDisposer(key));
+    }
+
+    /**
+     * Stops polling, uploads whatever is left and closes the run.
+     */
+    private static final class LiveTailDisposer extends Disposer {
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+
+        LiveTailDisposer(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void tearDown(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener)
+                throws IOException, InterruptedException {
+            Tail tail = TAILS.remove(key);
+            if (tail == null) {
+                // Jenkins restarted while the steps were running; the run is left open.
+                listener.getLogger().println("Lost track of the live TestRail run " + key + ", it is left open.");
+                return;
+            }
+            tail.future.cancel(false);
+            try {
+                tail.poll(true);
+            } finally {
+                // Even if the last results can't be uploaded, the run mustn't stay open for good.
+                try {
+                    tail.testrail.closeRun(tail.runId);
+                } catch (TestRailException e) {
+                    listener.getLogger().println("Failed to close test run in TestRail.");
+                    listener.getLogger().println("EXCEPTION: " + e.getMessage());
+                }
+            }
+            listener.getLogger().println("Uploaded " + tail.uploaded + " results to TestRail run " + tail.runId + " while the build ran.");
+        }
+    }
+
+    /**
+     * The state of one live run: which files were seen, which cases are in the run and what was uploaded.
+     */
+    private static final class Tail {
+        private final TestRailClient testrail;
+        private final int runId;
+        private final FilePath workspace;
+        private final String glob;
+        private final ExistingTestCases testCases;
+        private final ResultMapper mapper;
+        private final PrintStream logger;
+        private final Map<String, Long> lastSeen = new HashMap<String, Long>();
+        private final Map<String, Long> uploadedVersions = new HashMap<String, Long>();
+        private final Set<Integer> runCases = new LinkedHashSet<Integer>();
+        // The last status and comment uploaded for each case.
+        private final Map<Integer, String> sent = new HashMap<Integer, String>();
+        private volatile ScheduledFuture<?> future;
+        private int uploaded;
+
+        Tail(TestRailClient testrail, int runId, FilePath workspace, String glob, ExistingTestCases testCases,
+             ResultMapper mapper, PrintStream logger) {
+            this.testrail = testrail;
+            this.runId = runId;
+            this.workspace = workspace;
+            this.glob = glob;
+            this.testCases = testCases;
+            this.mapper = mapper;
+            this.logger = logger;
+        }
+
+        void pollQuietly() {
+            try {
+                poll(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                logger.println("Live TestRail upload failed, retrying on the next poll: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Uploads the results of files that changed. A file is only read once it hasn't changed
+         * since the previous poll, so files still being written are skipped, unless this is the last poll.
+         */
+        synchronized void poll(boolean last) throws IOException, InterruptedException {
+            FilePath tempdir = new FilePath(Util.createTempDir());
+            try {
+                Map<String, Long> settled = new HashMap<String, Long>();
+                int copied = 0;
+                for (FilePath file : workspace.list(glob)) {
+                    String path = file.getRemote();
+                    long modified = file.lastModified();
+                    Long previous = lastSeen.put(path, modified);
+                    Long uploadedVersion = uploadedVersions.get(path);
+                    if ((last || previous != null && previous == modified)
+                            && (uploadedVersion == null || uploadedVersion != modified)) {
+                        file.copyTo(tempdir.child("result-" + copied++ + ".xml"));
+                        settled.put(path, modified);
+                    }
+                }
+                if (settled.isEmpty()) {
+                    return;
+                }
+
+                Results results = mapper.map(new JUnitResults(tempdir, "*.xml", logger).getSuites(), testCases, logger);
+                // Files are read whole again after every change, so only upload what actually changed.
+                Results changed = new Results();
+                for (Result result : results.getResults()) {
+                    if (!version(result).equals(sent.get(result.getCaseId()))) {
+                        changed.addResult(result);
+                    }
+                }
+                results = changed;
+                if (results.size() > 0) {
+                    if (runCases.addAll(results.getCaseIds())) {
+                        // update_run replaces the cases, so it's sent all of them.
+                        testrail.updateRunCases(runId, runCases);
+                    }
+                    for (Results chunk : results.partitionFailuresFirst(TestRailOutbox.CHUNK_SIZE)) {
+                        testrail.addResultsForCases(runId, chunk);
+                    }
+                    for (Result result : results.getResults()) {
+                        sent.put(result.getCaseId(), version(result));
+                    }
+                    uploaded += results.size();
+                    logger.println("Uploaded " + results.size() + " new results to TestRail run " + runId + ".");
+                }
+                uploadedVersions.putAll(settled);
+            } catch (JAXBException | TestRailException e) {
+                throw new IOException(e.getMessage(), e);
+            } finally {
+                tempdir.deleteRecursive();
+            }
+        }
+    }
+
+    private static String version(Result result) {
+        return result.getStatus().getValue() + ":" + result.getComment();
+    }
+
+    @Symbol("testRailLiveTail")
+    @Extension
+    public static final class DescriptorImpl extends BuildWrapperDescriptor {
+        // The lookups are the same as the notifier's, which holds the TestRail configuration.
+        private TestRailNotifier.DescriptorImpl getNotifierDescriptor() {
+            return Jenkins.getActiveInstance().getDescriptorByType(TestRailNotifier.DescriptorImpl.class);
+        }
+
+        public ListBoxModel doFillTestrailProjectItems() {
+            return getNotifierDescriptor().doFillTestrailProjectItems();
+        }
+
+        public ListBoxModel doFillTestrailSuiteItems(@QueryParameter int testrailProject) {
+            return getNotifierDescriptor().doFillTestrailSuiteItems(testrailProject);
+        }
+
+        public ListBoxModel doFillTestrailMilestoneItems(@QueryParameter int testrailProject) {
+            return getNotifierDescriptor().doFillTestrailMilestoneItems(testrailProject);
+        }
+
+        public FormValidation doCheckTestrailProject(@QueryParameter int value)
+                throws IOException, ServletException {
+            return getNotifierDescriptor().doCheckTestrailProject(value);
+        }
+
+        @Override
+        public boolean isApplicable(AbstractProject<?, ?> item) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Stream test results to TestRail while the build runs";
+        }
+    }
+}
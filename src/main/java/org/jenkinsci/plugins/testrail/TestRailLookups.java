@@ -0,0 +1,173 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import org.jenkinsci.plugins.testrail.TestRailObjects.ElementNotFoundException;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Milestone;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Project;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Suite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cached lookups for the configuration UI, so opening a job's configuration or checking a field
+ * doesn't call TestRail every time. Entries live for
+ * {@code org.jenkinsci.plugins.testrail.TestRailLookups.ttl} seconds, five minutes by default.
+ *
+ * Builds resolve project, suite and milestone names through name to ID indexes, which live for
+ * {@code org.jenkinsci.plugins.testrail.TestRailLookups.nameTtl} seconds, an hour by default.
+ * A name that isn't in the index reloads it once, in case it was created or renamed since.
+ */
+public final class TestRailLookups {
+    private static final long TTL = Long.getLong(TestRailLookups.class.getName() + ".ttl", 300);
+    private static final long NAME_TTL = Long.getLong(TestRailLookups.class.getName() + ".nameTtl", 3600);
+    private static final int MAX_SIZE = 1000;
+
+    private static final TtlCache<List<Object>, Project[]> PROJECTS = new TtlCache<List<Object>, Project[]>(TTL, TimeUnit.SECONDS, MAX_SIZE);
+    private static final TtlCache<List<Object>, Suite[]> SUITES = new TtlCache<List<Object>, Suite[]>(TTL, TimeUnit.SECONDS, MAX_SIZE);
+    private static final TtlCache<List<Object>, Milestone[]> MILESTONES = new TtlCache<List<Object>, Milestone[]>(TTL, TimeUnit.SECONDS, MAX_SIZE);
+    private static final TtlCache<List<Object>, Boolean> REACHABLE = new TtlCache<List<Object>, Boolean>(TTL, TimeUnit.SECONDS, MAX_SIZE);
+    private static final TtlCache<List<Object>, Boolean> AUTHENTICATED = new TtlCache<List<Object>, Boolean>(TTL, TimeUnit.SECONDS, MAX_SIZE);
+    private static final TtlCache<List<Object>, Map<String, Integer>> PROJECT_IDS = new TtlCache<List<Object>, Map<String, Integer>>(NAME_TTL, TimeUnit.SECONDS, MAX_SIZE);
+    private static final TtlCache<List<Object>, Map<String, Integer>> SUITE_IDS = new TtlCache<List<Object>, Map<String, Integer>>(NAME_TTL, TimeUnit.SECONDS, MAX_SIZE);
+    private static final TtlCache<List<Object>, Map<String, String>> MILESTONE_IDS = new TtlCache<List<Object>, Map<String, String>>(NAME_TTL, TimeUnit.SECONDS, MAX_SIZE);
+
+    private TestRailLookups() {
+    }
+
+    private static List<Object> key(TestRailClient testrail, Object... extra) {
+        List<Object> key = new ArrayList<Object>(Arrays.<Object>asList(testrail.getHost(), testrail.getUser(), testrail.getPassword()));
+        key.addAll(Arrays.asList(extra));
+        return key;
+    }
+
+    public static Project[] getProjects(final TestRailClient testrail) throws Exception {
+        return PROJECTS.get(key(testrail), new TtlCache.Loader<Project[]>() {
+            public Project[] load() throws Exception {
+                return testrail.getProjects();
+            }
+        });
+    }
+
+    public static Suite[] getSuites(final TestRailClient testrail, final int projectId) throws Exception {
+        return SUITES.get(key(testrail, projectId), new TtlCache.Loader<Suite[]>() {
+            public Suite[] load() throws Exception {
+                return testrail.getSuites(projectId);
+            }
+        });
+    }
+
+    public static Milestone[] getMilestones(final TestRailClient testrail, final int projectId) throws Exception {
+        return MILESTONES.get(key(testrail, projectId), new TtlCache.Loader<Milestone[]>() {
+            public Milestone[] load() throws Exception {
+                return testrail.getMilestones(projectId);
+            }
+        });
+    }
+
+    public static boolean serverReachable(final TestRailClient testrail) throws Exception {
+        return REACHABLE.get(Arrays.<Object>asList(testrail.getHost()), new TtlCache.Loader<Boolean>() {
+            public Boolean load() throws Exception {
+                return testrail.serverReachable();
+            }
+        });
+    }
+
+    public static boolean authenticationWorks(final TestRailClient testrail) throws Exception {
+        return AUTHENTICATED.get(key(testrail), new TtlCache.Loader<Boolean>() {
+            public Boolean load() throws Exception {
+                return testrail.authenticationWorks();
+            }
+        });
+    }
+
+    public static int resolveProjectId(final TestRailClient testrail, String name) throws Exception {
+        return resolve(PROJECT_IDS, key(testrail), new TtlCache.Loader<Map<String, Integer>>() {
+            public Map<String, Integer> load() throws Exception {
+                Map<String, Integer> ids = new HashMap<String, Integer>();
+                for (Project project : testrail.getProjects()) {
+                    ids.put(project.getName(), project.getId());
+                }
+                return ids;
+            }
+        }, name, "Project");
+    }
+
+    public static int resolveSuiteId(final TestRailClient testrail, final int projectId, String name) throws Exception {
+        return resolve(SUITE_IDS, key(testrail, projectId), new TtlCache.Loader<Map<String, Integer>>() {
+            public Map<String, Integer> load() throws Exception {
+                Map<String, Integer> ids = new HashMap<String, Integer>();
+                for (Suite suite : testrail.getSuites(projectId)) {
+                    ids.put(suite.getName(), suite.getId());
+                }
+                return ids;
+            }
+        }, name, "Suite");
+    }
+
+    /**
+     * @return the ID of the milestone with this name; blank values and IDs are returned as they are.
+     */
+    public static String resolveMilestoneId(final TestRailClient testrail, final int projectId, String nameOrId) throws Exception {
+        if (nameOrId == null || nameOrId.trim().isEmpty() || nameOrId.trim().matches("\\d+")) {
+            return nameOrId;
+        }
+        return resolve(MILESTONE_IDS, key(testrail, projectId), new TtlCache.Loader<Map<String, String>>() {
+            public Map<String, String> load() throws Exception {
+                Map<String, String> ids = new HashMap<String, String>();
+                for (Milestone milestone : testrail.getMilestones(projectId)) {
+                    ids.put(milestone.getName(), milestone.getId());
+                }
+                return ids;
+            }
+        }, nameOrId.trim(), "Milestone");
+    }
+
+    private static <V> V resolve(TtlCache<List<Object>, Map<String, V>> index, List<Object> key,
+                                 TtlCache.Loader<Map<String, V>> loader, String name, String kind) throws Exception {
+        V id = index.get(key, loader).get(name);
+        if (id == null) {
+            index.invalidate(key);
+            id = index.get(key, loader).get(name);
+        }
+        if (id == null) {
+            throw new ElementNotFoundException(kind + " not found: " + name);
+        }
+        return id;
+    }
+
+    /**
+     * Forgets everything cached, for instance after the global TestRail configuration changed.
+     */
+    public static void invalidateAll() {
+        PROJECT_IDS.invalidateAll();
+        SUITE_IDS.invalidateAll();
+        MILESTONE_IDS.invalidateAll();
+        PROJECTS.invalidateAll();
+        SUITES.invalidateAll();
+        MILESTONES.invalidateAll();
+        REACHABLE.invalidateAll();
+        AUTHENTICATED.invalidateAll();
+    }
+}
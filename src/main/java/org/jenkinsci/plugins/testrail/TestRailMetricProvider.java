@@ -0,0 +1,98 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Publishes {@link TestRailMetrics} as {@code testrail.api.<endpoint>.<metric>} gauges when the Metrics plugin is installed,
+ * and how busy the {@link TestRailScheduler} is as {@code testrail.scheduler.*}.
+ */
+@Extension(optional = true)
+public class TestRailMetricProvider extends MetricProvider {
+    @Override
+    public MetricSet getMetricSet() {
+        final Map<String, Metric> metrics = new HashMap<String, Metric>();
+        for (String name : TestRailMetrics.ENDPOINTS) {
+            final TestRailMetrics.Endpoint endpoint = TestRailMetrics.forEndpoint(name);
+            String prefix = "testrail.api." + name + ".";
+            metrics.put(prefix + "requests", new Gauge<Long>() {
+                public Long getValue() { return endpoint.getRequests(); }
+            });
+            metrics.put(prefix + "errors", new Gauge<Long>() {
+                public Long getValue() { return endpoint.getErrors(); }
+            });
+            metrics.put(prefix + "rateLimited", new Gauge<Long>() {
+                public Long getValue() { return endpoint.getRateLimited(); }
+            });
+            metrics.put(prefix + "retries", new Gauge<Long>() {
+                public Long getValue() { return endpoint.getRetries(); }
+            });
+            metrics.put(prefix + "sleepMillis", new Gauge<Long>() {
+                public Long getValue() { return endpoint.getSleepMillis(); }
+            });
+            metrics.put(prefix + "bytesIn", new Gauge<Long>() {
+                public Long getValue() { return endpoint.getBytesIn(); }
+            });
+            metrics.put(prefix + "bytesOut", new Gauge<Long>() {
+                public Long getValue() { return endpoint.getBytesOut(); }
+            });
+            metrics.put(prefix + "latency.mean", new Gauge<Double>() {
+                public Double getValue() { return endpoint.getMeanLatencyMillis(); }
+            });
+            metrics.put(prefix + "latency.p95", new Gauge<Long>() {
+                public Long getValue() { return endpoint.getLatencyP95Millis(); }
+            });
+            metrics.put(prefix + "latency.p99", new Gauge<Long>() {
+                public Long getValue() { return endpoint.getLatencyP99Millis(); }
+            });
+            metrics.put(prefix + "latency.max", new Gauge<Long>() {
+                public Long getValue() { return endpoint.getMaxLatencyMillis(); }
+            });
+        }
+        final TestRailMetrics.Scheduler scheduler = new TestRailMetrics.Scheduler(TestRailScheduler.get());
+        metrics.put("testrail.scheduler.active", new Gauge<Integer>() {
+            public Integer getValue() { return scheduler.getActiveCount(); }
+        });
+        metrics.put("testrail.scheduler.queued", new Gauge<Integer>() {
+            public Integer getValue() { return scheduler.getQueueDepth(); }
+        });
+        metrics.put("testrail.scheduler.queued.high", new Gauge<Integer>() {
+            public Integer getValue() { return scheduler.getHighQueueDepth(); }
+        });
+        metrics.put("testrail.scheduler.queued.normal", new Gauge<Integer>() {
+            public Integer getValue() { return scheduler.getNormalQueueDepth(); }
+        });
+        metrics.put("testrail.scheduler.queued.bulk", new Gauge<Integer>() {
+            public Integer getValue() { return scheduler.getBulkQueueDepth(); }
+        });
+        return new MetricSet() {
+            public Map<String, Metric> getMetrics() {
+                return metrics;
+            }
+        };
+    }
+}
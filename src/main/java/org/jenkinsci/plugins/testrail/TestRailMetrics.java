@@ -0,0 +1,296 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.jenkinsci.plugins.testrail.Utils.*;
+
+/**
+ * Latency, traffic and error counts of every TestRail API call, by endpoint ({@code get_cases},
+ * {@code add_results_for_cases}, ...). Each endpoint is registered as an MXBean named
+ * {@code org.jenkinsci.plugins.testrail:type=Endpoint,name=<endpoint>} the first time it's called,
+ * and the known endpoints are also published through the Metrics plugin when it's installed.
+ * The {@link TestRailScheduler} is registered as {@code org.jenkinsci.plugins.testrail:type=Scheduler}.
+ */
+public final class TestRailMetrics {
+    static final String DOMAIN = "org.jenkinsci.plugins.testrail";
+
+    /** The endpoints this plugin calls. Others are still measured, but only show up over JMX. */
+    public static final List<String> ENDPOINTS = Collections.unmodifiableList(Arrays.asList(
+            "get_projects", "get_suites", "get_cases", "get_sections", "get_milestones",
+            "add_section", "add_case", "add_run", "update_run", "close_run", "add_plan", "close_plan",
+            "add_results_for_cases", "add_attachment_to_result"));
+
+    private static final ConcurrentMap<String, Endpoint> ENDPOINT_METRICS = new ConcurrentHashMap<String, Endpoint>();
+
+    private TestRailMetrics() {
+    }
+
+    /**
+     * @param path an API path such as {@code index.php?/api/v2/get_cases/1&suite_id=2}.
+     */
+    public static Endpoint forPath(String path) {
+        return forEndpoint(endpointOf(path));
+    }
+
+    public static Endpoint forEndpoint(String name) {
+        Endpoint endpoint = ENDPOINT_METRICS.get(name);
+        if (endpoint == null) {
+            Endpoint created = new Endpoint(name);
+            endpoint = ENDPOINT_METRICS.putIfAbsent(name, created);
+            if (endpoint == null) {
+                endpoint = created;
+                register(created);
+            }
+        }
+        return endpoint;
+    }
+
+    static String endpointOf(String path) {
+        int start = path.indexOf("/api/v2/");
+        if (start < 0) {
+            return "other";
+        }
+        start += "/api/v2/".length();
+        int end = start;
+        while (end < path.length() && path.charAt(end) != '/' && path.charAt(end) != '&') {
+            end++;
+        }
+        return end > start ? path.substring(start, end) : "other";
+    }
+
+    private static void register(Endpoint endpoint) {
+        register(endpoint, "type=Endpoint,name=" + ObjectName.quote(endpoint.getName()));
+    }
+
+    static void register(TestRailScheduler scheduler) {
+        register(new Scheduler(scheduler), "type=Scheduler");
+    }
+
+    private static void register(Object bean, String properties) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(bean, name);
+            }
+        } catch (JMException e) {
+            log("Could not register TestRail metrics " + properties + " with JMX: " + e);
+        }
+    }
+
+    public interface SchedulerMXBean {
+        int getMaxConcurrent();
+        int getActiveCount();
+        int getQueueDepth();
+        int getHighQueueDepth();
+        int getNormalQueueDepth();
+        int getBulkQueueDepth();
+    }
+
+    /**
+     * How busy the {@link TestRailScheduler} is: requests running, and waiting by priority.
+     */
+    public static final class Scheduler implements SchedulerMXBean {
+        private final TestRailScheduler scheduler;
+
+        Scheduler(TestRailScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        public int getMaxConcurrent() {
+            return scheduler.getMaxConcurrent();
+        }
+
+        public int getActiveCount() {
+            return scheduler.getActiveCount();
+        }
+
+        public int getQueueDepth() {
+            return scheduler.getQueueDepth();
+        }
+
+        public int getHighQueueDepth() {
+            return scheduler.getQueueDepth(TestRailScheduler.Priority.HIGH);
+        }
+
+        public int getNormalQueueDepth() {
+            return scheduler.getQueueDepth(TestRailScheduler.Priority.NORMAL);
+        }
+
+        public int getBulkQueueDepth() {
+            return scheduler.getQueueDepth(TestRailScheduler.Priority.BULK);
+        }
+    }
+
+    public interface EndpointMXBean {
+        String getName();
+        long getRequests();
+        long getErrors();
+        long getRateLimited();
+        long getRetries();
+        long getSleepMillis();
+        long getBytesIn();
+        long getBytesOut();
+        double getMeanLatencyMillis();
+        long getMaxLatencyMillis();
+        long getLatencyP50Millis();
+        long getLatencyP95Millis();
+        long getLatencyP99Millis();
+        void reset();
+    }
+
+    /**
+     * Counters of one endpoint. Latencies go into fixed buckets, so percentiles are the upper bound
+     * of the bucket they fall in, which is accurate enough to alert on and costs no allocation per call.
+     */
+    public static final class Endpoint implements EndpointMXBean {
+        // Upper bounds in milliseconds; the last bucket takes everything slower.
+        private static final long[] BUCKETS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 120000 };
+
+        private final String name;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong rateLimited = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong sleepNanos = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        private final AtomicLong latencyNanos = new AtomicLong();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1);
+
+        Endpoint(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records an attempt that got a response, whatever its status.
+         */
+        public void completed(int status, long nanos) {
+            requests.incrementAndGet();
+            if (status == 429) {
+                rateLimited.incrementAndGet();
+            } else if (status < 200 || status >= 300) {
+                errors.incrementAndGet();
+            }
+            latency(nanos);
+        }
+
+        /**
+         * Records an attempt that got no response, such as a timeout or a refused connection.
+         */
+        public void failed(long nanos) {
+            requests.incrementAndGet();
+            errors.incrementAndGet();
+            latency(nanos);
+        }
+
+        public void retried() {
+            retries.incrementAndGet();
+        }
+
+        public void slept(long nanos) {
+            sleepNanos.addAndGet(nanos);
+        }
+
+        public void transferred(long sent, long received) {
+            bytesOut.addAndGet(Math.max(0, sent));
+            bytesIn.addAndGet(Math.max(0, received));
+        }
+
+        private void latency(long nanos) {
+            latencyNanos.addAndGet(nanos);
+            long max;
+            do {
+                max = maxLatencyNanos.get();
+            } while (nanos > max && !maxLatencyNanos.compareAndSet(max, nanos));
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+                bucket++;
+            }
+            histogram.incrementAndGet(bucket);
+        }
+
+        private long percentile(double fraction) {
+            long total = 0;
+            for (int i = 0; i < histogram.length(); i++) {
+                total += histogram.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                seen += histogram.get(i);
+                if (seen >= rank) {
+                    return BUCKETS[i];
+                }
+            }
+            return getMaxLatencyMillis();
+        }
+
+        public String getName() { return name; }
+        public long getRequests() { return requests.get(); }
+        public long getErrors() { return errors.get(); }
+        public long getRateLimited() { return rateLimited.get(); }
+        public long getRetries() { return retries.get(); }
+        public long getSleepMillis() { return TimeUnit.NANOSECONDS.toMillis(sleepNanos.get()); }
+        public long getBytesIn() { return bytesIn.get(); }
+        public long getBytesOut() { return bytesOut.get(); }
+        public long getMaxLatencyMillis() { return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get()); }
+        public long getLatencyP50Millis() { return percentile(0.50); }
+        public long getLatencyP95Millis() { return percentile(0.95); }
+        public long getLatencyP99Millis() { return percentile(0.99); }
+
+        public double getMeanLatencyMillis() {
+            long count = requests.get();
+            return count == 0 ? 0 : latencyNanos.get() / 1e6 / count;
+        }
+
+        public void reset() {
+            requests.set(0);
+            errors.set(0);
+            rateLimited.set(0);
+            retries.set(0);
+            sleepNanos.set(0);
+            bytesIn.set(0);
+            bytesOut.set(0);
+            latencyNanos.set(0);
+            maxLatencyNanos.set(0);
+            for (int i = 0; i < histogram.length(); i++) {
+                histogram.set(i, 0);
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.jenkinsci.plugins.testrail;
 
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
@@ -28,7 +29,11 @@ import hudson.model.BuildListener;
 import hudson.model.TaskListener;
 import hudson.util.ListBoxModel;
 import hudson.tasks.*;
+import hudson.tasks.junit.TestResultAction;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
 import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
 import org.jenkinsci.Symbol;
@@ -42,18 +47,48 @@ import org.jenkinsci.plugins.testrail.TestRailObjects.*;
 import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 import javax.xml.bind.JAXBException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class TestRailNotifier extends Notifier implements SimpleBuildStep {
+    public static final int DEFAULT_MAX_CONCURRENT_TARGETS = 4;
+    public static final int DEFAULT_TIMEOUT = 60;
 
     private int testrailProject;
     private int testrailSuite;
+    private String testrailProjectName;
+    private String testrailSuiteName;
     private String junitResultsGlob;
     private String testrailMilestone;
     private boolean enableMilestone;
     private boolean createNewTestcases;
+    private boolean asyncUpload;
+    private boolean deltaUpload;
+    private List<TestRailTarget> targets;
+    private String testrailRunId;
+    private String testrailPlan;
+    private ResultAggregation resultAggregation;
+    private int attachmentThreshold;
+    private boolean readFromTestResultAction;
+    private boolean uploadFromAgent;
+    // Boxed, since 0 means no limit: jobs saved before the timeout existed load it as null.
+    private Integer timeout = DEFAULT_TIMEOUT;
+    private int maxConcurrentTargets = DEFAULT_MAX_CONCURRENT_TARGETS;
 
     // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
     @DataBoundConstructor
@@ -84,6 +119,24 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
         return this.testrailSuite;
     }
 
+    @DataBoundSetter
+    public void setTestrailProjectName(String name) {
+        this.testrailProjectName = Util.fixEmptyAndTrim(name);
+    }
+
+    public String getTestrailProjectName() {
+        return this.testrailProjectName;
+    }
+
+    @DataBoundSetter
+    public void setTestrailSuiteName(String name) {
+        this.testrailSuiteName = Util.fixEmptyAndTrim(name);
+    }
+
+    public String getTestrailSuiteName() {
+        return this.testrailSuiteName;
+    }
+
     @DataBoundSetter
     public void setJunitResultsGlob(String glob) {
         this.junitResultsGlob = glob;
@@ -120,37 +173,235 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
         return this.createNewTestcases;
     }
 
+    @DataBoundSetter
+    public void setAsyncUpload(boolean asyncUpload) {
+        this.asyncUpload = asyncUpload;
+    }
+
+    public boolean getAsyncUpload() {
+        return this.asyncUpload;
+    }
+
+    @DataBoundSetter
+    public void setDeltaUpload(boolean deltaUpload) {
+        this.deltaUpload = deltaUpload;
+    }
+
+    public boolean getDeltaUpload() {
+        return this.deltaUpload;
+    }
+
+    @DataBoundSetter
+    public void setTestrailRunId(String runId) {
+        this.testrailRunId = runId;
+    }
+
+    public String getTestrailRunId() {
+        return this.testrailRunId;
+    }
+
+    @DataBoundSetter
+    public void setTestrailPlan(String plan) {
+        this.testrailPlan = plan;
+    }
+
+    public String getTestrailPlan() {
+        return this.testrailPlan;
+    }
+
+    @DataBoundSetter
+    public void setTargets(List<TestRailTarget> targets) {
+        this.targets = targets;
+    }
+
+    public List<TestRailTarget> getTargets() {
+        return this.targets == null ? Collections.<TestRailTarget>emptyList() : this.targets;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentTargets(int maxConcurrentTargets) {
+        this.maxConcurrentTargets = maxConcurrentTargets;
+    }
+
+    public int getMaxConcurrentTargets() {
+        return this.maxConcurrentTargets;
+    }
+
+    @DataBoundSetter
+    public void setResultAggregation(ResultAggregation resultAggregation) {
+        this.resultAggregation = resultAggregation;
+    }
+
+    public ResultAggregation getResultAggregation() {
+        return this.resultAggregation == null ? ResultAggregation.NONE : this.resultAggregation;
+    }
+
+    @DataBoundSetter
+    public void setAttachmentThreshold(int attachmentThreshold) {
+        this.attachmentThreshold = attachmentThreshold;
+    }
+
+    public int getAttachmentThreshold() {
+        return this.attachmentThreshold;
+    }
+
+    @DataBoundSetter
+    public void setReadFromTestResultAction(boolean readFromTestResultAction) {
+        this.readFromTestResultAction = readFromTestResultAction;
+    }
+
+    public boolean getReadFromTestResultAction() {
+        return this.readFromTestResultAction;
+    }
+
+    @DataBoundSetter
+    public void setUploadFromAgent(boolean uploadFromAgent) {
+        this.uploadFromAgent = uploadFromAgent;
+    }
+
+    public boolean getUploadFromAgent() {
+        return this.uploadFromAgent;
+    }
+
+    @DataBoundSetter
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return how many minutes publishing may take before it's abandoned, 0 for no limit.
+     */
+    public int getTimeout() {
+        return this.timeout;
+    }
+
+    protected Object readResolve() {
+        if (maxConcurrentTargets == 0) {
+            maxConcurrentTargets = DEFAULT_MAX_CONCURRENT_TARGETS;
+        }
+        if (timeout == null) {
+            timeout = DEFAULT_TIMEOUT;
+        }
+        return this;
+    }
+
+
+    /**
+     * The step's own project and suite, if set, followed by the additional targets.
+     */
+    public List<TestRailTarget> getEffectiveTargets() {
+        List<TestRailTarget> effective = new ArrayList<TestRailTarget>();
+        if (testrailProject > 0 || testrailProjectName != null) {
+            TestRailTarget primary = new TestRailTarget(testrailProject, testrailSuite);
+            primary.setTestrailProjectName(testrailProjectName);
+            primary.setTestrailSuiteName(testrailSuiteName);
+            primary.setTestrailMilestone(testrailMilestone);
+            primary.setTestrailRunId(testrailRunId);
+            effective.add(primary);
+        }
+        effective.addAll(getTargets());
+        return effective;
+    }
 
     @Override
-    public void perform(@Nonnull hudson.model.Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher, @Nonnull TaskListener taskListener) throws InterruptedException, IOException {
-        TestRailClient testrail = getDescriptor().getTestrailInstance();
-        testrail.setHost(getDescriptor().getTestrailHost());
-        testrail.setUser(getDescriptor().getTestrailUser());
-        testrail.setPassword(getDescriptor().getTestrailPassword());
+    public void perform(@Nonnull final hudson.model.Run<?, ?> run, @Nonnull FilePath workspace, @Nonnull Launcher launcher, @Nonnull TaskListener taskListener) throws InterruptedException, IOException {
+        final PhaseTimer timer = new PhaseTimer();
+        final TestRailClient testrail = getDescriptor().getTestrailInstance()
+                .withOwner(run.getParent().getFullName()).withTimer(timer);
 
-        ExistingTestCases testCases = null;
-        try {
-            testCases = new ExistingTestCases(testrail, this.testrailProject, this.testrailSuite);
-        } catch (ElementNotFoundException e) {
-            taskListener.getLogger().println("Cannot find project or suite on TestRail server. Please check your Jenkins job and system configurations.");
+        final PrintStream logger = taskListener.getLogger();
+        final String runComment = "Automated results from Jenkins: " + workspace.toURI();
+        final EnvVars env = run.getEnvironment(taskListener);
+
+        List<TestRailTarget> effectiveTargets = new ArrayList<TestRailTarget>();
+        for (TestRailTarget target : getEffectiveTargets()) {
+            try {
+                effectiveTargets.add(target.resolve(testrail, env));
+            } catch (ElementNotFoundException e) {
+                logger.println("Cannot find " + e.getMessage() + ". Please check your Jenkins job configuration.");
+                run.setResult(hudson.model.Result.FAILURE);
+                return;
+            } catch (IllegalArgumentException e) {
+                logger.println(e.getMessage());
+                run.setResult(hudson.model.Result.FAILURE);
+                return;
+            } catch (IOException | InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+        if (effectiveTargets.isEmpty()) {
+            logger.println("No TestRail project and suite to publish to. Please check your Jenkins job configuration.");
             run.setResult(hudson.model.Result.FAILURE);
+            return;
         }
-
-        String[] caseNames;
+        String planName = Util.fixEmptyAndTrim(testrailPlan) == null ? null : env.expand(testrailPlan);
+
+        // Fetching the suites, creating the runs and collecting the result files don't depend on
+        // each other, so they run concurrently and we only join where the mapping needs them.
+        final ExecutorService executor = Executors.newCachedThreadPool(
+                new NamingThreadFactory(new DaemonThreadFactory(), "TestRailNotifier"));
+        ExecutorService targetExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(effectiveTargets.size(), maxConcurrentTargets)),
+                new NamingThreadFactory(new DaemonThreadFactory(), "TestRailNotifier target"));
+        Map<String, Future<JUnitResults>> collected = new LinkedHashMap<String, Future<JUnitResults>>();
         try {
-            caseNames = Objects.requireNonNull(testCases).listTestCases();
-            taskListener.getLogger().println("Test Cases: ");
-            for (String caseName : caseNames) {
-                taskListener.getLogger().println("  " + caseName);
+            if (uploadFromAgent && planName == null) {
+                if (!publishFromAgent(workspace, effectiveTargets, env, testrail, targetExecutor, runComment, timer, logger)) {
+                    run.setResult(hudson.model.Result.FAILURE);
+                }
+                return;
             }
-        } catch (ElementNotFoundException e) {
-            taskListener.getLogger().println("Failed to list test cases");
-            taskListener.getLogger().println("Element not found:" + e.getMessage());
+            if (uploadFromAgent) {
+                logger.println("Test plans are always published from the controller.");
+            }
+
+            // Each set of result files is collected and parsed once, however many targets use it.
+            List<Future<JUnitResults>> targetResults = new ArrayList<Future<JUnitResults>>();
+            for (TestRailTarget target : effectiveTargets) {
+                String glob = target.getJunitResultsGlob() != null ? target.getJunitResultsGlob() : this.junitResultsGlob;
+                if (target.getJunitResultsGlob() == null && readFromTestResultAction) {
+                    // Keyed by null, which no file pattern can be.
+                    glob = null;
+                    if (!collected.containsKey(null)) {
+                        collected.put(null, readTestResultAction(executor, run, timer, logger));
+                    }
+                } else if (!collected.containsKey(glob)) {
+                    collected.put(glob, collect(executor, workspace, glob, timer, logger));
+                }
+                targetResults.add(collected.get(glob));
+            }
+
+            boolean success;
+            if (planName == null) {
+                success = publishRuns(run, effectiveTargets, targetResults, env, testrail, executor, targetExecutor, runComment, timer, logger);
+            } else {
+                success = publishPlan(run, planName, effectiveTargets, targetResults, testrail, executor, targetExecutor, runComment, timer, logger);
+            }
+            if (!success) {
+                run.setResult(hudson.model.Result.FAILURE);
+            }
+        } finally {
+            for (Future<JUnitResults> future : collected.values()) {
+                future.cancel(true);
+            }
+            targetExecutor.shutdownNow();
+            executor.shutdownNow();
+            // Also when publishing failed, which is when the timings are most interesting.
+            report(run, timer, logger);
         }
+    }
 
-        taskListener.getLogger().println("Munging test result files.");
-        Results results = new Results();
+    /**
+     * Logs the timings and keeps them on the build, where they're shown and charted across builds.
+     */
+    private static void report(hudson.model.Run<?, ?> run, PhaseTimer timer, PrintStream logger) {
+        timer.report(logger);
+        run.addAction(new TestRailPublishAction(timer));
+    }
 
+    private Future<JUnitResults> collect(ExecutorService executor, final FilePath workspace, final String resultsGlob,
+                                         final PhaseTimer timer, final PrintStream logger) throws IOException {
         // FilePath doesn't have a read method. We want to actually process the files on the master
         // because during processing we talk to TestRail and slaves might not be able to.
         // So we'll copy the result files to the master and munge them there:
@@ -159,121 +410,531 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
         // Do a base.copyRecursiveTo() with file masks into the temp dir.
         // process the temp files.
         // it looks like the destructor deletes the temp dir when we're finished
-        FilePath tempdir = new FilePath(Util.createTempDir());
-        // This picks up *all* result files so if you have old results in the same directory we'll see those, too.
+        final FilePath tempdir = new FilePath(Util.createTempDir());
+        return executor.submit(new Callable<JUnitResults>() {
+            public JUnitResults call() throws Exception {
+                long start = timer.start();
+                try {
+                    // This picks up *all* result files so if you have old results in the same directory we'll see those, too.
+                    try {
+                        workspace.copyRecursiveTo(resultsGlob, "", tempdir);
+                    } catch (IOException e) {
+                        throw new IOException("Error trying to copy files to Jenkins master: " + e.getMessage(), e);
+                    }
+                    return new JUnitResults(tempdir, resultsGlob, logger);
+                } finally {
+                    timer.stop(resultsGlob + ": ", "collect and parse", start);
+                }
+            }
+        });
+    }
+
+    private Future<JUnitResults> readTestResultAction(ExecutorService executor, final hudson.model.Run<?, ?> run,
+                                                      final PhaseTimer timer, final PrintStream logger) {
+        return executor.submit(new Callable<JUnitResults>() {
+            public JUnitResults call() throws Exception {
+                long start = timer.start();
+                try {
+                    TestResultAction action = run.getAction(TestResultAction.class);
+                    if (action == null) {
+                        throw new IOException("This build has no JUnit test results. Publish them with the junit step before this one.");
+                    }
+                    return new JUnitResults(action.getResult(), logger);
+                } finally {
+                    timer.stop("read JUnit test results", start);
+                }
+            }
+        });
+    }
+
+    /**
+     * Work done for each target, possibly concurrently with the other targets.
+     */
+    private interface TargetTask<T> {
+        T call(int index, TestRailTarget target, String phasePrefix, PrintStream logger) throws Exception;
+    }
+
+    /**
+     * Runs a task for every target, at most {@link #maxConcurrentTargets} at a time.
+     * With several targets each one logs to a buffer that is printed in order once it's done,
+     * and a target that fails with an exception gets a null result instead of failing the rest.
+     * Targets still running when the step's {@link #timeout} is up are cancelled and get a null result too.
+     */
+    private <T> List<T> forEachTarget(final List<TestRailTarget> targets, ExecutorService targetExecutor,
+                                      final TargetTask<T> task, PhaseTimer timer, PrintStream logger)
+            throws InterruptedException, IOException {
+        boolean fanOut = targets.size() > 1;
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        List<ByteArrayOutputStream> buffers = new ArrayList<ByteArrayOutputStream>();
+        List<T> results = new ArrayList<T>();
+        boolean timedOut = false;
         try {
-            workspace.copyRecursiveTo(junitResultsGlob, "", tempdir);
-        } catch (Exception e) {
-            taskListener.getLogger().println("Error trying to copy files to Jenkins master: " + e.getMessage());
-            run.setResult(hudson.model.Result.FAILURE);
+            for (int i = 0; i < targets.size(); i++) {
+                final int index = i;
+                final TestRailTarget target = targets.get(i);
+                final ByteArrayOutputStream buffer = fanOut ? new ByteArrayOutputStream() : null;
+                final PrintStream targetLogger = fanOut ? new PrintStream(buffer, true, "UTF-8") : logger;
+                final String phasePrefix = fanOut ? target.getDisplayName() + ": " : "";
+                buffers.add(buffer);
+                futures.add(targetExecutor.submit(new Callable<T>() {
+                    public T call() throws Exception {
+                        return task.call(index, target, phasePrefix, targetLogger);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                ByteArrayOutputStream buffer = buffers.get(i);
+                try {
+                    if (timeout > 0) {
+                        long remaining = TimeUnit.MINUTES.toMillis(timeout) - timer.getTotal();
+                        results.add(await(futures.get(i), Math.max(0, remaining)));
+                    } else {
+                        results.add(await(futures.get(i)));
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (TimeoutException e) {
+                    futures.get(i).cancel(true);
+                    results.add(null);
+                    if (!timedOut) {
+                        logger.println("Publishing to TestRail took longer than " + timeout + " minutes, giving up."
+                                + " Results that were already spooled will be retried in the background.");
+                        timedOut = true;
+                    }
+                } catch (IOException e) {
+                    if (!fanOut) {
+                        throw e;
+                    }
+                    results.add(null);
+                    logger.println("EXCEPTION: " + e.getMessage());
+                } catch (Exception e) {
+                    if (!fanOut) {
+                        throw new IOException(e);
+                    }
+                    results.add(null);
+                    logger.println("EXCEPTION: " + e.getMessage());
+                } finally {
+                    if (buffer != null) {
+                        logger.println("TestRail " + targets.get(i).getDisplayName() + ":");
+                        logger.print(buffer.toString("UTF-8"));
+                    }
+                }
+            }
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
         }
-        JUnitResults actualJunitResults = null;
+        return results;
+    }
+
+    private boolean publishRuns(final hudson.model.Run<?, ?> run, List<TestRailTarget> targets,
+                                final List<Future<JUnitResults>> targetResults, final EnvVars env, final TestRailClient testrail,
+                                final ExecutorService executor, ExecutorService targetExecutor, final String runComment,
+                                final PhaseTimer timer, PrintStream logger)
+            throws InterruptedException, IOException {
+        List<Boolean> published = forEachTarget(targets, targetExecutor, new TargetTask<Boolean>() {
+            public Boolean call(int index, TestRailTarget target, String phasePrefix, PrintStream targetLogger) throws Exception {
+                return publish(run, target, env, testrail, executor, targetResults.get(index), runComment, timer, phasePrefix, targetLogger);
+            }
+        }, timer, logger);
+        return !published.contains(null) && !published.contains(Boolean.FALSE);
+    }
+
+    /**
+     * Hands every target to the agent that holds the workspace, which parses, maps and uploads the results itself.
+     *
+     * @return false if publishing failed for any target.
+     */
+    private boolean publishFromAgent(final FilePath workspace, List<TestRailTarget> targets, final EnvVars env,
+                                     final TestRailClient testrail, ExecutorService targetExecutor, final String runComment,
+                                     final PhaseTimer timer, PrintStream logger)
+            throws InterruptedException, IOException {
+        if (readFromTestResultAction || deltaUpload || asyncUpload) {
+            logger.println("Reading the JUnit publisher's results, delta upload and background upload only apply to uploads from the controller.");
+        }
+        List<Boolean> published = forEachTarget(targets, targetExecutor, new TargetTask<Boolean>() {
+            public Boolean call(int index, TestRailTarget target, String phasePrefix, PrintStream targetLogger) throws Exception {
+                int existingRunId;
+                try {
+                    existingRunId = target.resolveRunId(env);
+                } catch (NumberFormatException e) {
+                    targetLogger.println("Invalid TestRail run ID: " + e.getMessage());
+                    return false;
+                }
+                String glob = target.getJunitResultsGlob() != null ? target.getJunitResultsGlob() : junitResultsGlob;
+                AgentPublisher publisher = new AgentPublisher(testrail, target, existingRunId, runComment, glob,
+                        new ResultMapper(createNewTestcases), getResultAggregation(), attachmentThreshold,
+                        TestRailOutbox.CHUNK_SIZE, new StreamTaskListener(targetLogger));
+                long start = timer.start();
+                AgentPublisher.Summary summary;
+                try {
+                    summary = workspace.act(publisher);
+                } finally {
+                    timer.stop(phasePrefix, "publish from agent", start);
+                }
+                if (summary == null) {
+                    return false;
+                }
+                targetLogger.println("Uploaded " + summary.getResultCount() + " results to TestRail run " + summary.getRunId() + " from the agent.");
+                return true;
+            }
+        }, timer, logger);
+        return !published.contains(null) && !published.contains(Boolean.FALSE);
+    }
+
+    /**
+     * Maps the shared results onto one target's suite and uploads them, either to a new run
+     * or, if the target names one, to an existing run that is left open for other shards.
+     *
+     * @return false if publishing to this target failed.
+     */
+    private boolean publish(hudson.model.Run<?, ?> run, TestRailTarget target, EnvVars env, final TestRailClient testrail,
+                            ExecutorService executor, Future<JUnitResults> junitResultsFuture, final String runComment,
+                            final PhaseTimer timer, final String phasePrefix, PrintStream logger)
+            throws InterruptedException, IOException {
+        final int projectId = target.getTestrailProject();
+        final int suiteId = target.getTestrailSuite();
+        final String milestoneId = target.getTestrailMilestone();
+        final int existingRunId;
         try {
-            actualJunitResults = new JUnitResults(tempdir, this.junitResultsGlob, taskListener.getLogger());
-        } catch (JAXBException e) {
-            taskListener.getLogger().println(e.getMessage());
-            run.setResult(hudson.model.Result.FAILURE);
+            existingRunId = target.resolveRunId(env);
+        } catch (NumberFormatException e) {
+            logger.println("Invalid TestRail run ID: " + e.getMessage());
+            return false;
         }
-        List<Testsuite> suites = Objects.requireNonNull(actualJunitResults).getSuites();
+        final boolean newRun = existingRunId <= 0;
+
+        Future<Integer> runIdFuture = executor.submit(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                if (!newRun) {
+                    return existingRunId;
+                }
+                long start = timer.start();
+                try {
+                    // The cases are only known after mapping; they are added to the run before the results.
+                    return testrail.addRun(projectId, suiteId, milestoneId, runComment, false, null);
+                } finally {
+                    timer.stop(phasePrefix, "add run", start);
+                }
+            }
+        });
+
+        Results results;
+        int runId;
         try {
-            for (Testsuite suite : suites) {
-                results.merge(addSuite(suite, null, testCases));
+            results = mapTarget(target, testrail, executor, junitResultsFuture, timer, phasePrefix, logger);
+            if (results == null) {
+                abandon(testrail, newRun ? runIdFuture : null, logger);
+                return false;
+            }
+            try {
+                runId = await(runIdFuture);
+            } catch (TestRailException e) {
+                logger.println("Error pushing results to TestRail");
+                logger.println(e.getMessage());
+                return false;
             }
+        } catch (InterruptedException | IOException e) {
+            abandon(testrail, newRun ? runIdFuture : null, logger);
+            throw e;
         } catch (Exception e) {
-            taskListener.getLogger().println("Failed to create missing Test Suites in TestRail.");
-            taskListener.getLogger().println("EXCEPTION: " + e.getMessage());
+            abandon(testrail, newRun ? runIdFuture : null, logger);
+            throw new IOException(e);
         }
 
-        taskListener.getLogger().println("Uploading results to TestRail.");
-        String runComment = "Automated results from Jenkins: " + workspace.toURI();
-        String milestoneId = testrailMilestone;
+        DeltaFilter delta = null;
+        if (deltaUpload) {
+            if (newRun) {
+                logger.println("Delta upload only applies when appending to an existing run, uploading all results.");
+            } else {
+                // Results are only recorded as sent once TestRail has accepted them.
+                delta = DeltaFilter.forRun(run.getParent(), testrail.getHost(), runId);
+                results = delta.filter(results);
+                logger.println("Delta upload: suppressed " + delta.getSuppressed() + " unchanged results, "
+                        + results.size() + " changed.");
+            }
+        }
 
-        int runId = -1;
-        TestRailResponse response = null;
-        try {
-            runId = testrail.addRun(Objects.requireNonNull(testCases).getProjectId(), testCases.getSuiteId(), milestoneId, runComment);
-            response = testrail.addResultsForCases(runId, results);
-        } catch (TestRailException e) {
-            taskListener.getLogger().println("Error pushing results to TestRail");
-            taskListener.getLogger().println(e.getMessage());
-            run.setResult(hudson.model.Result.FAILURE);
+        boolean uploaded = upload(run, testrail, runId, newRun, newRun, delta, null, results, timer, phasePrefix, logger);
+        if (uploaded && !newRun) {
+            logger.println("Test run " + runId + " is left open for the step that created it to close.");
+        }
+        return uploaded;
+    }
+
+    /**
+     * Publishes every target as a run of one new test plan. The plan and all of its runs are
+     * created in a single request once every target has been mapped, then the runs are uploaded concurrently.
+     *
+     * @return false if publishing failed for any target.
+     */
+    private boolean publishPlan(final hudson.model.Run<?, ?> run, String planName, List<TestRailTarget> targets,
+                                final List<Future<JUnitResults>> targetResults, final TestRailClient testrail,
+                                final ExecutorService executor, ExecutorService targetExecutor, String description,
+                                final PhaseTimer timer, PrintStream logger)
+            throws InterruptedException, IOException {
+        int projectId = targets.get(0).getTestrailProject();
+        String milestoneId = targets.get(0).getTestrailMilestone();
+        for (TestRailTarget target : targets) {
+            if (target.getTestrailProject() != projectId) {
+                logger.println("All targets of a test plan must belong to the same TestRail project.");
+                return false;
+            }
+            if (!Objects.equals(target.getTestrailMilestone(), milestoneId)) {
+                logger.println("All targets of a test plan must have the same TestRail milestone.");
+                return false;
+            }
+        }
+
+        final List<Results> mapped = forEachTarget(targets, targetExecutor, new TargetTask<Results>() {
+            public Results call(int index, TestRailTarget target, String phasePrefix, PrintStream targetLogger) throws Exception {
+                return mapTarget(target, testrail, executor, targetResults.get(index), timer, phasePrefix, targetLogger);
+            }
+        }, timer, logger);
+        if (mapped.contains(null)) {
+            return false;
         }
 
-        boolean buildResult = (200 == Objects.requireNonNull(response).getStatus());
-        if (buildResult) {
-            taskListener.getLogger().println("Successfully uploaded test results.");
-        } else {
-            taskListener.getLogger().println("Failed to add results to TestRail.");
-            taskListener.getLogger().println("status: " + response.getStatus());
-            taskListener.getLogger().println("body :\n" + response.getBody());
+        // Targets of the same suite with configurations share a plan entry, one run per configuration.
+        List<PlanEntry> entries = new ArrayList<PlanEntry>();
+        Map<Integer, PlanEntry> configuredEntries = new HashMap<Integer, PlanEntry>();
+        final List<Run> planRuns = new ArrayList<Run>();
+        for (int i = 0; i < targets.size(); i++) {
+            TestRailTarget target = targets.get(i);
+            Run planRun = new Run();
+            planRun.setSuiteId(target.getTestrailSuite());
+            planRun.setConfigIds(target.getConfigIdList());
+            planRun.setCaseIds(mapped.get(i).getCaseIds());
+            planRuns.add(planRun);
+
+            PlanEntry entry = planRun.getConfigIds().isEmpty() ? null : configuredEntries.get(target.getTestrailSuite());
+            if (entry == null) {
+                entry = new PlanEntry(target.getTestrailSuite());
+                entries.add(entry);
+                if (!planRun.getConfigIds().isEmpty()) {
+                    configuredEntries.put(target.getTestrailSuite(), entry);
+                }
+            }
+            entry.addRun(planRun);
+        }
+
+        int planId;
+        long planStart = timer.start();
+        try {
+            planId = testrail.addPlan(projectId, planName, milestoneId, description, entries);
+        } catch (TestRailException | ElementNotFoundException e) {
+            logger.println("Error creating test plan in TestRail");
+            logger.println(e.getMessage());
+            return false;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            timer.stop("add plan", planStart);
+        }
+        logger.println("Created TestRail plan " + planId + " with " + planRuns.size() + " runs.");
+
+        // Background uploads close the plan once the last of its runs is uploaded.
+        final PlanCompletion completion = asyncUpload ? new PlanCompletion(testrail, planId, targets.size()) : null;
+        List<Boolean> uploaded = forEachTarget(targets, targetExecutor, new TargetTask<Boolean>() {
+            public Boolean call(int index, TestRailTarget target, String phasePrefix, PrintStream targetLogger) throws Exception {
+                // The runs were created with their cases and are closed together with the plan.
+                return upload(run, testrail, planRuns.get(index).getId(), false, false, null, completion,
+                        mapped.get(index), timer, phasePrefix, targetLogger);
+            }
+        }, timer, logger);
+        if (uploaded.contains(null) || uploaded.contains(Boolean.FALSE)) {
+            logger.println("Test plan " + planId + " is left open because not all results were uploaded.");
+            return false;
+        }
+        if (asyncUpload) {
+            logger.println("Test plan " + planId + " will be closed once its results are uploaded in the background.");
+            return true;
         }
         try {
-            testrail.closeRun(runId);
+            testrail.closePlan(planId);
         } catch (Exception e) {
-            taskListener.getLogger().println("Failed to close test run in TestRail.");
-            taskListener.getLogger().println("EXCEPTION: " + e.getMessage());
+            logger.println("Failed to close test plan in TestRail.");
+            logger.println("EXCEPTION: " + e.getMessage());
         }
+        return true;
     }
 
-    public Results addSuite(Testsuite suite, String parentId, ExistingTestCases existingCases) throws IOException, TestRailException {
-        //figure out TR sectionID
-        int sectionId;
+    /**
+     * Fetches a target's cases and maps the parsed results onto them.
+     *
+     * @return the results, or null if the suite or the result files couldn't be read.
+     */
+    private Results mapTarget(TestRailTarget target, final TestRailClient testrail, ExecutorService executor,
+                              Future<JUnitResults> junitResultsFuture, final PhaseTimer timer, final String phasePrefix,
+                              PrintStream logger) throws Exception {
+        final int projectId = target.getTestrailProject();
+        final int suiteId = target.getTestrailSuite();
+        Future<ExistingTestCases> testCasesFuture = executor.submit(new Callable<ExistingTestCases>() {
+            public ExistingTestCases call() throws Exception {
+                long start = timer.start();
+                try {
+                    return new ExistingTestCases(testrail, projectId, suiteId);
+                } finally {
+                    timer.stop(phasePrefix, "fetch test cases", start);
+                }
+            }
+        });
+
+        ExistingTestCases testCases;
         try {
-            sectionId = existingCases.getSectionId(suite.getName());
-        } catch (ElementNotFoundException e1) {
-            try {
-                sectionId = existingCases.addSection(suite.getName(), parentId);
-            } catch (ElementNotFoundException e) {
-                //listener.getLogger().println("Unable to add test section " + suite.getName());
-                //listener.getLogger().println(e.getMessage());
-                return null;
+            testCases = await(testCasesFuture);
+        } catch (ElementNotFoundException e) {
+            logger.println("Cannot find project or suite on TestRail server. Please check your Jenkins job and system configurations.");
+            return null;
+        }
+
+        try {
+            String[] caseNames = testCases.listTestCases();
+            logger.println("Test Cases: ");
+            for (String caseName : caseNames) {
+                logger.println("  " + caseName);
             }
+        } catch (ElementNotFoundException e) {
+            logger.println("Failed to list test cases");
+            logger.println("Element not found:" + e.getMessage());
+        }
+
+        logger.println("Munging test result files.");
+        JUnitResults actualJunitResults;
+        try {
+            actualJunitResults = await(junitResultsFuture);
+        } catch (JAXBException | IOException e) {
+            logger.println(e.getMessage());
+            return null;
         }
 
-        //if we have any subsections - process them
-        Results results = new Results();
+        long mapStart = timer.start();
+        Results results = new ResultMapper(createNewTestcases).map(actualJunitResults.getSuites(), testCases, logger);
+        timer.stop(phasePrefix, "map results", mapStart);
+
+        int mappedCount = results.size();
+        results = results.aggregate(getResultAggregation());
+        if (results.size() < mappedCount) {
+            logger.println("Aggregated " + mappedCount + " results into " + results.size() + " for their TestRail cases.");
+        }
+        return results;
+    }
 
-        if (suite.hasSuites()) {
-            for (Testsuite subsuite : suite.getSuites()) {
-                results.merge(addSuite(subsuite, String.valueOf(sectionId), existingCases));
+    /**
+     * Spools the results to the outbox and uploads them, in the background if asyncUpload is set.
+     *
+     * @return false if the upload failed; the results are then retried from the outbox.
+     */
+    private boolean upload(hudson.model.Run<?, ?> run, TestRailClient testrail, int runId, boolean closeRun, boolean scopeRun,
+                           DeltaFilter delta, PlanCompletion plan, Results results, PhaseTimer timer, String phasePrefix,
+                           PrintStream logger) throws IOException {
+        if (attachmentThreshold > 0) {
+            results.attachLongComments(attachmentThreshold);
+        }
+        timer.count("results", results.size());
+
+        // Spool the results before uploading so they survive a TestRail outage or a restart.
+        OutboxEntry entry = TestRailOutbox.get().spool(testrail.getHost(), testrail.getUser(), runId, closeRun, scopeRun,
+                run.getExternalizableId(), delta, results);
+
+        if (asyncUpload) {
+            // Attached before it's queued, so a quick worker's status update is saved with the build.
+            TestRailUploadAction action = new TestRailUploadAction(run, runId, results.size());
+            run.addAction(action);
+            run.save();
+            if (TestRailUploadService.get().submit(action, new ResultUpload(testrail, entry, plan))) {
+                logger.println("Queued " + results.size() + " results for background upload to TestRail run " + runId + ".");
+                return true;
             }
+            run.getActions().remove(action);
+            logger.println("TestRail upload queue is full, uploading synchronously.");
         }
 
-        if (suite.hasCases()) {
-            for (Testcase testcase : suite.getCases()) {
-                int caseId = 0;
-                boolean addResult = false;
-                try {
-                    caseId = existingCases.getCaseId(suite.getName(), testcase.getName());
-                    addResult = true;
-                } catch (ElementNotFoundException e) {
-                    if (this.createNewTestcases) {
-                        caseId = existingCases.addCase(testcase, sectionId);
-                        addResult = true;
-                    }
-                }
-                if (addResult) {
-                    CaseStatus caseStatus;
-                    Float caseTime = testcase.getTime();
-                    String caseComment = null;
-                    Failure caseFailure = testcase.getFailure();
-                    if (caseFailure != null) {
-                        caseStatus = CaseStatus.FAILED;
-                        caseComment = (caseFailure.getMessage() == null) ? caseFailure.getText() : caseFailure.getMessage() + "\n" + caseFailure.getText();
-                    } else if (testcase.getSkipped() != null) {
-                        caseStatus = CaseStatus.UNTESTED;
-                    } else {
-                        caseStatus = CaseStatus.PASSED;
-                    }
+        boolean uploaded = uploadNow(new ResultUpload(testrail, entry), timer, phasePrefix, logger);
+        if (plan != null) {
+            plan.finished(uploaded);
+        }
+        return uploaded;
+    }
 
-                    if (caseStatus != CaseStatus.UNTESTED) {
-                        results.addResult(new Result(caseId, caseStatus, caseComment, caseTime));
-                    }
-                }
+    private static boolean uploadNow(ResultUpload upload, PhaseTimer timer, String phasePrefix, PrintStream logger) {
+        logger.println("Uploading results to TestRail.");
+        long uploadStart = timer.start();
+        try {
+            try {
+                upload.uploadResults();
+                logger.println("Successfully uploaded test results.");
+            } catch (TestRailException | IOException e) {
+                logger.println("Error pushing results to TestRail");
+                logger.println(e.getMessage());
+                logger.println("The results were kept in the outbox and will be retried in the background.");
+                return false;
+            } finally {
+                timer.stop(phasePrefix, "upload results", uploadStart);
+            }
+            try {
+                upload.closeRun();
+            } catch (Exception e) {
+                logger.println("Failed to close test run in TestRail.");
+                logger.println("EXCEPTION: " + e.getMessage());
             }
+        } finally {
+            upload.finish();
         }
+        return true;
+    }
 
-        return results;
+    /**
+     * Waits for a phase and rethrows whatever it failed with.
+     */
+    private static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static <T> T await(Future<T> future, long timeoutMillis) throws Exception {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the run if it was already created, so a failed publish doesn't leave an empty open run behind.
+     * Runs this step didn't create are passed as null and left alone.
+     */
+    private static void abandon(TestRailClient testrail, Future<Integer> runIdFuture, PrintStream logger) {
+        if (runIdFuture == null || runIdFuture.cancel(true)) {
+            return;
+        }
+        try {
+            testrail.closeRun(runIdFuture.get());
+        } catch (ExecutionException e) {
+            // the run was never created
+        } catch (Exception e) {
+            logger.println("Failed to close test run in TestRail.");
+            logger.println("EXCEPTION: " + e.getMessage());
+        }
+    }
+
+    public Results addSuite(Testsuite suite, String parentId, ExistingTestCases existingCases) throws IOException, TestRailException {
+        return new ResultMapper(createNewTestcases).addSuite(suite, parentId, existingCases);
     }
 
     // Overridden for better type safety.
@@ -294,7 +955,6 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
         private String testrailHost = "";
         private String testrailUser = "";
         private String testrailPassword = "";
-        private TestRailClient testrail = new TestRailClient("", "", "");
 
         /**
          * In order to load the persisted global configuration, you have to
@@ -310,43 +970,62 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
         }
 
         private FormValidation getFormValidation() throws IOException {
-            testrail.setHost(getTestrailHost());
-            testrail.setUser(getTestrailUser());
-            testrail.setPassword(getTestrailPassword());
+            TestRailClient testrail = getTestrailInstance();
             if (getTestrailHost().isEmpty() || getTestrailUser().isEmpty() || getTestrailPassword().isEmpty() ||
-                    !testrail.serverReachable() || !testrail.authenticationWorks()) {
+                    !serverReachable(testrail) || !authenticationWorks(testrail)) {
                 return FormValidation.warning("Please fix your TestRail configuration in Manage Jenkins -> Configure System.");
             }
             return FormValidation.ok();
         }
 
-        public ListBoxModel doFillTestrailProjectItems() {
-            testrail.setHost(getTestrailHost());
-            testrail.setUser(getTestrailUser());
-            testrail.setPassword(getTestrailPassword());
+        // The checks are cached, every field of every job's configuration page runs them.
+        private static boolean serverReachable(TestRailClient testrail) throws IOException {
+            try {
+                return TestRailLookups.serverReachable(testrail);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
 
+        private static boolean authenticationWorks(TestRailClient testrail) throws IOException {
+            try {
+                return TestRailLookups.authenticationWorks(testrail);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        public ListBoxModel doFillResultAggregationItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (ResultAggregation aggregation : ResultAggregation.values()) {
+                items.add(aggregation.getDisplayName(), aggregation.name());
+            }
+            return items;
+        }
+
+        public ListBoxModel doFillTestrailProjectItems() {
             ListBoxModel items = new ListBoxModel();
             try {
-                for (Project prj : testrail.getProjects()) {
+                for (Project prj : TestRailLookups.getProjects(getTestrailInstance())) {
                     items.add(prj.getName(), prj.getStringId());
                 }
-            } catch (ElementNotFoundException | IOException ignored) {
+            } catch (Exception ignored) {
             }
 
             return items;
         }
 
         public ListBoxModel doFillTestrailSuiteItems(@QueryParameter int testrailProject) {
-            testrail.setHost(getTestrailHost());
-            testrail.setUser(getTestrailUser());
-            testrail.setPassword(getTestrailPassword());
-
             ListBoxModel items = new ListBoxModel();
             try {
-                for (Suite suite : testrail.getSuites(testrailProject)) {
+                for (Suite suite : TestRailLookups.getSuites(getTestrailInstance(), testrailProject)) {
                     items.add(suite.getName(), suite.getStringId());
                 }
-            } catch (ElementNotFoundException | IOException ignored) {
+            } catch (Exception ignored) {
             }
 
             return items;
@@ -374,10 +1053,7 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
             if (!value.startsWith("http://") && !value.startsWith("https://")) {
                 return FormValidation.error("Host must be a valid URL.");
             }
-            testrail.setHost(value);
-            testrail.setUser("");
-            testrail.setPassword("");
-            if (!testrail.serverReachable()) {
+            if (!serverReachable(TestRailClients.get(value, "", ""))) {
                 return FormValidation.error("Host is not reachable.");
             }
             return FormValidation.ok();
@@ -391,10 +1067,8 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
                 return FormValidation.warning("Please add your user's email address.");
             }
             if (testrailPassword.length() > 0) {
-                testrail.setHost(testrailHost);
-                testrail.setUser(value);
-                testrail.setPassword(testrailPassword);
-                if (testrail.serverReachable() && !testrail.authenticationWorks()) {
+                TestRailClient testrail = TestRailClients.get(testrailHost, value, testrailPassword);
+                if (serverReachable(testrail) && !authenticationWorks(testrail)) {
                     return FormValidation.error("Invalid user/password combination.");
                 }
             }
@@ -409,10 +1083,8 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
                 return FormValidation.warning("Please add your password.");
             }
             if (testrailUser.length() > 0) {
-                testrail.setHost(testrailHost);
-                testrail.setUser(testrailUser);
-                testrail.setPassword(value);
-                if (testrail.serverReachable() && !testrail.authenticationWorks()) {
+                TestRailClient testrail = TestRailClients.get(testrailHost, testrailUser, value);
+                if (serverReachable(testrail) && !authenticationWorks(testrail)) {
                     return FormValidation.error("Invalid user/password combination.");
                 }
             }
@@ -423,10 +1095,10 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
             ListBoxModel items = new ListBoxModel();
             items.add("None", "");
             try {
-                for (Milestone mstone : testrail.getMilestones(testrailProject)) {
+                for (Milestone mstone : TestRailLookups.getMilestones(getTestrailInstance(), testrailProject)) {
                     items.add(mstone.getName(), mstone.getId());
                 }
-            } catch (ElementNotFoundException | IOException ignored) {
+            } catch (Exception ignored) {
             }
             return items;
         }
@@ -450,6 +1122,7 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
             testrailHost = formData.getString("testrailHost");
             testrailUser = formData.getString("testrailUser");
             testrailPassword = formData.getString("testrailPassword");
+            TestRailLookups.invalidateAll();
 
 
             // ^Can also use req.bindJSON(this, formData);
@@ -482,12 +1155,11 @@ public class TestRailNotifier extends Notifier implements SimpleBuildStep {
             return testrailPassword;
         }
 
-        public void setTestrailInstance(TestRailClient trc) {
-            testrail = trc;
-        }
-
+        /**
+         * @return the client for the global TestRail configuration. Clients are immutable and can be shared.
+         */
         public TestRailClient getTestrailInstance() {
-            return testrail;
+            return TestRailClients.get(getTestrailHost(), getTestrailUser(), getTestrailPassword());
         }
     }
 }
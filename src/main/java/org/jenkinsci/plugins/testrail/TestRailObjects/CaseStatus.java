@@ -4,13 +4,28 @@ package org.jenkinsci.plugins.testrail.TestRailObjects;
  * Created by alex.bernier on 6/19/17.
  */
 public enum CaseStatus {
-    PASSED(1),
-    BLOCKED(2),
-    UNTESTED(3),
-    RETEST(4),
-    FAILED(5);
+    PASSED(1, 0),
+    BLOCKED(2, 3),
+    UNTESTED(3, 1),
+    RETEST(4, 2),
+    FAILED(5, 4);
 
     private final int id;
-    CaseStatus(int id) { this.id = id; }
+    private final int severity;
+    CaseStatus(int id, int severity) { this.id = id; this.severity = severity; }
     public int getValue() { return id; }
+
+    /**
+     * @return how bad this status is, FAILED being the worst and PASSED the least.
+     */
+    public int getSeverity() { return severity; }
+
+    public static CaseStatus fromValue(int id) {
+        for (CaseStatus status : values()) {
+            if (status.id == id) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown status id " + id);
+    }
 }
@@ -0,0 +1,52 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail.TestRailObjects;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An entry of a test plan: one suite, with a run per configuration.
+ */
+public class PlanEntry {
+    private final int suiteId;
+    private final List<Run> runs = new ArrayList<Run>();
+
+    public PlanEntry(int suiteId) { this.suiteId = suiteId; }
+
+    public void addRun(Run run) { this.runs.add(run); }
+
+    public int getSuiteId() { return this.suiteId; }
+    public List<Run> getRuns() { return this.runs; }
+
+    /**
+     * @return the cases of all runs of this entry.
+     */
+    public Set<Integer> getCaseIds() {
+        Set<Integer> caseIds = new LinkedHashSet<Integer>();
+        for (Run run : runs) {
+            if (run.getCaseIds() != null) {
+                caseIds.addAll(run.getCaseIds());
+            }
+        }
+        return caseIds;
+    }
+}
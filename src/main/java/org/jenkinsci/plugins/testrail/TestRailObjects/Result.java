@@ -26,6 +26,7 @@ public class Result {
     private CaseStatus status;
     private Float elapsed;
     private String comment;
+    private String attachment;
 
     public Result(int caseId, CaseStatus status, String comment, Float elapsed) {
         this.caseId = caseId;
@@ -38,11 +39,13 @@ public class Result {
     public void setStatus(CaseStatus status) { this.status = status; }
     public void setElapsed(float timeInSeconds) { this.elapsed = timeInSeconds; }
     public void setComment(String comment) { this.comment = comment; }
+    public void setAttachment(String attachment) { this.attachment = attachment; }
 
     public int getCaseId() { return this.caseId; }
     public CaseStatus getStatus() { return this.status; }
     public Float getElapsed() { return this.elapsed; }
     public String getComment() { return this.comment; }
+    public String getAttachment() { return this.attachment; }
 
     public String getElapsedTimeString() {
         int time = (elapsed == null || elapsed.intValue() == 0) ? 1 : elapsed.intValue();
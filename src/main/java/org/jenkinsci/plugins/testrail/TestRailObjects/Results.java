@@ -19,12 +19,23 @@
 package org.jenkinsci.plugins.testrail.TestRailObjects;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by Drew on 3/25/2014.
  */
 public class Results {
+    // Merged comments are capped so a heavily parameterized case doesn't produce a huge payload.
+    static final int MAX_COMMENT_LENGTH = 4000;
+    private static final String COMMENT_SEPARATOR = "\n\n";
+    static final int MAX_SUMMARY_LENGTH = 200;
 
     private List<Result> results;
 
@@ -36,4 +47,141 @@ public class Results {
     public void addResult(Result result) { this.results.add(result); }
     public List<Result> getResults() { return this.results; }
     public void merge(Results other) { this.results.addAll(other.getResults()); }
+    public int size() { return this.results.size(); }
+
+    public Set<Integer> getCaseIds() {
+        Set<Integer> caseIds = new LinkedHashSet<Integer>();
+        for (Result result : results) {
+            caseIds.add(result.getCaseId());
+        }
+        return caseIds;
+    }
+
+    /**
+     * Combines the results for the same case into one, keeping the order in which the cases first appear.
+     * Elapsed times are summed and comments are merged.
+     */
+    public Results aggregate(ResultAggregation aggregation) {
+        if (aggregation == null || aggregation == ResultAggregation.NONE) {
+            return this;
+        }
+        Map<Integer, Result> byCase = new LinkedHashMap<Integer, Result>();
+        for (Result result : results) {
+            Result previous = byCase.get(result.getCaseId());
+            if (previous == null) {
+                byCase.put(result.getCaseId(), new Result(result.getCaseId(), result.getStatus(), result.getComment(), result.getElapsed()));
+                continue;
+            }
+            if (aggregation == ResultAggregation.LAST
+                    || result.getStatus().getSeverity() > previous.getStatus().getSeverity()) {
+                previous.setStatus(result.getStatus());
+            }
+            if (result.getElapsed() != null) {
+                previous.setElapsed(previous.getElapsed() == null ? result.getElapsed() : previous.getElapsed() + result.getElapsed());
+            }
+            previous.setComment(mergeComments(previous.getComment(), result.getComment()));
+        }
+        Results aggregated = new Results();
+        aggregated.results.addAll(byCase.values());
+        return aggregated;
+    }
+
+    private static String mergeComments(String first, String second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null || first.length() >= MAX_COMMENT_LENGTH) {
+            return first;
+        }
+        String merged = first + COMMENT_SEPARATOR + second;
+        return merged.length() <= MAX_COMMENT_LENGTH ? merged : merged.substring(0, MAX_COMMENT_LENGTH - 3) + "...";
+    }
+
+    /**
+     * Moves comments longer than the threshold into attachments, leaving their first line as a short summary.
+     */
+    public void attachLongComments(int threshold) {
+        for (Result result : results) {
+            String comment = result.getComment();
+            if (comment == null || comment.length() <= threshold) {
+                continue;
+            }
+            String summary = comment.trim();
+            int newline = summary.indexOf('\n');
+            if (newline >= 0) {
+                summary = summary.substring(0, newline);
+            }
+            if (summary.length() > MAX_SUMMARY_LENGTH) {
+                summary = summary.substring(0, MAX_SUMMARY_LENGTH - 3) + "...";
+            }
+            result.setAttachment(comment);
+            result.setComment(summary + "\n(Full output attached.)");
+        }
+    }
+
+    public List<Results> partition(int chunkSize) {
+        return partition(results, chunkSize);
+    }
+
+    /**
+     * @return true if every result is PASSED.
+     */
+    public boolean allPassed() {
+        for (Result result : results) {
+            if (result.getStatus() != CaseStatus.PASSED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Partitions the results by the worst status of their case, cases with a FAILED result before
+     * those with a BLOCKED one and RETEST before PASSED. Cases that only passed never share a chunk
+     * with the others, so every failure is uploaded before the bulk of the passes, whatever the chunk
+     * size. The results of a case stay together and in their order, so TestRail still ends up with
+     * the last one.
+     */
+    public List<Results> partitionFailuresFirst(int chunkSize) {
+        final Map<Integer, List<Result>> byCase = new LinkedHashMap<Integer, List<Result>>();
+        final Map<Integer, Integer> severities = new HashMap<Integer, Integer>();
+        for (Result result : results) {
+            List<Result> caseResults = byCase.get(result.getCaseId());
+            if (caseResults == null) {
+                caseResults = new ArrayList<Result>();
+                byCase.put(result.getCaseId(), caseResults);
+            }
+            caseResults.add(result);
+            Integer severity = severities.get(result.getCaseId());
+            if (severity == null || severity < result.getStatus().getSeverity()) {
+                severities.put(result.getCaseId(), result.getStatus().getSeverity());
+            }
+        }
+        List<Integer> cases = new ArrayList<Integer>(byCase.keySet());
+        // The sort is stable, so cases of the same severity keep their order.
+        Collections.sort(cases, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return severities.get(b) - severities.get(a);
+            }
+        });
+        List<Result> failing = new ArrayList<Result>();
+        List<Result> passing = new ArrayList<Result>();
+        for (Integer caseId : cases) {
+            boolean passed = severities.get(caseId) <= CaseStatus.PASSED.getSeverity();
+            (passed ? passing : failing).addAll(byCase.get(caseId));
+        }
+        List<Results> chunks = partition(failing, chunkSize);
+        chunks.addAll(partition(passing, chunkSize));
+        return chunks;
+    }
+
+    private static List<Results> partition(List<Result> results, int chunkSize) {
+        List<Results> chunks = new ArrayList<Results>();
+        for (int i = 0; i < results.size(); i += chunkSize) {
+            Results chunk = new Results();
+            chunk.results.addAll(results.subList(i, Math.min(i + chunkSize, results.size())));
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
 }
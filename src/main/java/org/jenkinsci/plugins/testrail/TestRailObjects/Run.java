@@ -18,6 +18,9 @@
  */
 package org.jenkinsci.plugins.testrail.TestRailObjects;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by Drew on 3/24/2014.
@@ -27,14 +30,20 @@ public class Run {
     private int id;
     private String description;
     private String milestoneId;
+    private List<Integer> configIds = Collections.emptyList();
+    private Collection<Integer> caseIds;
 
     public void setSuiteId(int suiteId) { this.suiteId = suiteId; }
     public void setId(int id) { this.id = id; }
     public void setDescription(String description) { this.description = description; }
     public void setMilestoneId(String mid) { this.milestoneId = mid; }
+    public void setConfigIds(List<Integer> configIds) { this.configIds = configIds; }
+    public void setCaseIds(Collection<Integer> caseIds) { this.caseIds = caseIds; }
 
     public int getSuiteId() { return this.suiteId; }
     public int getId() { return this.id; }
     public String getDescription() { return this.description; }
     public String getMilestoneId() {return this.milestoneId; }
+    public List<Integer> getConfigIds() { return this.configIds; }
+    public Collection<Integer> getCaseIds() { return this.caseIds; }
 }
@@ -0,0 +1,199 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Results;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.jenkinsci.plugins.testrail.Utils.*;
+
+/**
+ * Spool of mapped results under {@code JENKINS_HOME/testrail-outbox}.
+ *
+ * Results are written here before they're uploaded and removed once TestRail has taken them,
+ * so an outage or a restart doesn't lose them; {@link TestRailOutboxWorker} replays whatever is left.
+ * Entries being uploaded are claimed so the worker and a build never upload the same entry twice.
+ */
+public final class TestRailOutbox {
+    public static final int CHUNK_SIZE = Integer.getInteger(TestRailOutbox.class.getName() + ".chunkSize", 1000);
+    private static final String PENDING = ".outbox";
+    private static final String FAILED = ".failed";
+    private static TestRailOutbox instance;
+
+    private final File dir;
+    // Claimed entries and the run each is for, once it's known.
+    private final Map<String, String> claimed = new HashMap<String, String>();
+
+    TestRailOutbox(File dir) {
+        this.dir = dir;
+    }
+
+    public static synchronized TestRailOutbox get() {
+        if (instance == null) {
+            instance = new TestRailOutbox(new File(Jenkins.getActiveInstance().getRootDir(), "testrail-outbox"));
+        }
+        return instance;
+    }
+
+    public File getDir() {
+        return this.dir;
+    }
+
+    /**
+     * Writes results to a new entry, already claimed by the caller.
+     * The failures go in the first chunks so they show up in TestRail first.
+     */
+    public OutboxEntry spool(String host, String user, int runId, boolean closeRun, boolean scopeRun, String owner,
+                             DeltaFilter delta, Results results) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        File file = new File(dir, System.currentTimeMillis() + "-" + UUID.randomUUID() + PENDING);
+        synchronized (this) {
+            claimed.put(file.getName(), runKey(host, runId));
+        }
+        try {
+            return OutboxEntry.write(file, host, user, runId, closeRun, scopeRun, owner,
+                    delta == null ? null : delta.getFile(), results.partitionFailuresFirst(CHUNK_SIZE));
+        } catch (IOException e) {
+            synchronized (this) {
+                claimed.remove(file.getName());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the entry, or null if somebody else is uploading it.
+     */
+    public OutboxEntry claim(File file) throws IOException {
+        synchronized (this) {
+            if (claimed.containsKey(file.getName())) {
+                return null;
+            }
+            claimed.put(file.getName(), null);
+        }
+        try {
+            OutboxEntry entry = OutboxEntry.read(file);
+            synchronized (this) {
+                claimed.put(file.getName(), runKey(entry.getHost(), entry.getRunId()));
+            }
+            return entry;
+        } catch (IOException e) {
+            release(file);
+            throw e;
+        }
+    }
+
+    public void release(OutboxEntry entry) {
+        release(entry.getFile());
+    }
+
+    private synchronized void release(File file) {
+        claimed.remove(file.getName());
+    }
+
+    /**
+     * @return true if results for the run are being uploaded from the outbox right now.
+     */
+    public synchronized boolean isUploading(String host, int runId) {
+        return claimed.containsValue(runKey(host, runId));
+    }
+
+    private static String runKey(String host, int runId) {
+        return host + "#" + runId;
+    }
+
+    public void remove(OutboxEntry entry) {
+        if (!entry.getFile().delete() && entry.getFile().exists()) {
+            log("Failed to delete outbox entry " + entry.getFile());
+        }
+    }
+
+    /**
+     * Sets an entry aside once replaying it keeps failing. It stays on disk for an administrator to look at.
+     */
+    public void giveUp(OutboxEntry entry) {
+        giveUp(entry.getFile());
+    }
+
+    /**
+     * Sets aside an entry that can't be read, so it's reported once instead of being retried forever.
+     */
+    public void giveUp(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        if (!file.renameTo(new File(dir, file.getName().replace(PENDING, FAILED)))) {
+            log("Failed to set aside outbox entry " + file);
+        }
+    }
+
+    public List<File> list() {
+        return list(PENDING);
+    }
+
+    public int getDepth() {
+        return list(PENDING).size();
+    }
+
+    public int getFailedCount() {
+        return list(FAILED).size();
+    }
+
+    /**
+     * @return milliseconds since the oldest pending entry was spooled, or 0 if there is none.
+     */
+    public long getOldestAge() {
+        List<File> files = list(PENDING);
+        if (files.isEmpty()) {
+            return 0;
+        }
+        String name = files.get(0).getName();
+        try {
+            return System.currentTimeMillis() - Long.parseLong(name.substring(0, name.indexOf('-')));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private List<File> list(final String suffix) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File d, String name) {
+                return name.endsWith(suffix);
+            }
+        });
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        // entry names start with the spool time, so this is oldest first
+        Arrays.sort(files);
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AdministrativeMonitor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells administrators when results have been waiting in the {@link TestRailOutbox} for a while.
+ */
+@Extension
+public class TestRailOutboxMonitor extends AdministrativeMonitor {
+    private static final long THRESHOLD = TimeUnit.MINUTES.toMillis(10);
+
+    @Override
+    public boolean isActivated() {
+        TestRailOutbox outbox = TestRailOutbox.get();
+        return outbox.getOldestAge() > THRESHOLD || outbox.getFailedCount() > 0;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "TestRail Outbox";
+    }
+
+    public int getDepth() {
+        return TestRailOutbox.get().getDepth();
+    }
+
+    public String getOldestAge() {
+        return Util.getTimeSpanString(TestRailOutbox.get().getOldestAge());
+    }
+
+    public int getFailedCount() {
+        return TestRailOutbox.get().getFailedCount();
+    }
+
+    public String getDir() {
+        return TestRailOutbox.get().getDir().getPath();
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays results left in the {@link TestRailOutbox}, backing off per entry while TestRail keeps failing.
+ */
+@Extension
+public class TestRailOutboxWorker extends AsyncPeriodicWork {
+    private static final int MAX_ATTEMPTS = 24;
+    private static final long MAX_BACKOFF = TimeUnit.HOURS.toMillis(1);
+
+    private final Map<String, Integer> attempts = new HashMap<String, Integer>();
+    private final Map<String, Long> nextAttempt = new HashMap<String, Long>();
+
+    public TestRailOutboxWorker() {
+        super("TestRail outbox replay");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.SECONDS.toMillis(30);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        TestRailOutbox outbox = TestRailOutbox.get();
+        TestRailNotifier.DescriptorImpl descriptor =
+                Jenkins.getActiveInstance().getDescriptorByType(TestRailNotifier.DescriptorImpl.class);
+
+        List<File> pending = outbox.list();
+        // Entries uploaded by a build or set aside since the last pass are no longer tracked.
+        Set<String> names = new HashSet<String>();
+        for (File file : pending) {
+            names.add(file.getName());
+        }
+        attempts.keySet().retainAll(names);
+        nextAttempt.keySet().retainAll(names);
+
+        for (File file : pending) {
+            String name = file.getName();
+            Long next = nextAttempt.get(name);
+            if (next != null && next > System.currentTimeMillis()) {
+                continue;
+            }
+            OutboxEntry entry;
+            try {
+                entry = outbox.claim(file);
+            } catch (IOException e) {
+                listener.getLogger().println("Setting aside unreadable outbox entry " + name + ": " + e.getMessage());
+                outbox.giveUp(file);
+                attempts.remove(name);
+                nextAttempt.remove(name);
+                continue;
+            }
+            if (entry == null) {
+                continue;
+            }
+
+            if (!entry.getHost().equals(descriptor.getTestrailHost()) || !entry.getUser().equals(descriptor.getTestrailUser())) {
+                listener.getLogger().println("Skipping " + name + ": it was spooled for " + entry.getUser() + " on "
+                        + entry.getHost() + ", which is no longer the configured TestRail account.");
+                outbox.release(entry);
+                nextAttempt.put(name, System.currentTimeMillis() + MAX_BACKOFF);
+                continue;
+            }
+
+            // Replays are queued as the job that spooled them, "job#build" being the build's externalizable ID.
+            String owner = entry.getOwner();
+            TestRailClient testrail = TestRailClients.get(entry.getHost(), entry.getUser(), descriptor.getTestrailPassword())
+                    .withOwner(owner == null || owner.indexOf('#') < 0 ? owner : owner.substring(0, owner.lastIndexOf('#')));
+            try {
+                new ResultUpload(testrail, entry).call();
+                attempts.remove(name);
+                nextAttempt.remove(name);
+                listener.getLogger().println("Replayed " + entry.getResultCount() + " results to TestRail run " + entry.getRunId());
+                TestRailUploadAction.replayed(entry);
+            } catch (Exception e) {
+                Integer previous = attempts.get(name);
+                int attempt = previous == null ? 1 : previous + 1;
+                if (attempt >= MAX_ATTEMPTS) {
+                    listener.getLogger().println("Giving up on " + name + " after " + attempt + " attempts: " + e.getMessage());
+                    attempts.remove(name);
+                    nextAttempt.remove(name);
+                    outbox.giveUp(entry);
+                } else {
+                    long backoff = Math.min(MAX_BACKOFF, TimeUnit.SECONDS.toMillis(30) << Math.min(attempt, 20));
+                    listener.getLogger().println("Replaying " + name + " failed, retrying in " + backoff / 1000 + "s: " + e.getMessage());
+                    attempts.put(name, attempt);
+                    nextAttempt.put(name, System.currentTimeMillis() + backoff);
+                }
+            }
+        }
+    }
+}
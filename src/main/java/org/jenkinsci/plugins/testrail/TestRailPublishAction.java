@@ -0,0 +1,77 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.model.Action;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import jenkins.tasks.SimpleBuildStep;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * How long each phase of a TestRail publish took and how much work it did, shown on the build page.
+ * The job page charts it across builds through {@link TestRailTrendAction}.
+ */
+public class TestRailPublishAction implements RunAction2, SimpleBuildStep.LastBuildAction {
+    private final long total;
+    private final Map<String, Long> phases;
+    private final Map<String, Long> categories;
+    private final Map<String, Long> counters;
+    private transient Run<?, ?> run;
+
+    public TestRailPublishAction(PhaseTimer timer) {
+        this.total = timer.getTotal();
+        this.phases = timer.getPhases();
+        this.categories = timer.getCategories();
+        this.counters = timer.getCounters();
+    }
+
+    public long getTotal() { return this.total; }
+    public Map<String, Long> getPhases() { return this.phases; }
+    /** The longest time spent in each phase across targets. */
+    public Map<String, Long> getCategories() { return this.categories; }
+    public Map<String, Long> getCounters() { return this.counters; }
+
+    public Collection<? extends Action> getProjectActions() {
+        return Collections.singleton(new TestRailTrendAction(run.getParent()));
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "TestRail Timings";
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+}
@@ -28,8 +28,16 @@ public class TestRailResponse {
     private String body;
     public String getBody() { return body; }
 
+    private Integer retryAfter;
+    public Integer getRetryAfter() { return retryAfter; }
+
     public TestRailResponse(Integer status, String body) {
+        this(status, body, null);
+    }
+
+    public TestRailResponse(Integer status, String body, Integer retryAfter) {
         this.status = status;
         this.body = body;
+        this.retryAfter = retryAfter;
     }
 }
@@ -0,0 +1,166 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admits every TestRail request, so builds share TestRail fairly. At most
+ * {@code org.jenkinsci.plugins.testrail.TestRailScheduler.maxConcurrent} requests run at a time, ten by default.
+ * When a slot frees up, it goes to the waiting request with the highest priority and, among those,
+ * to the owner (usually a job) that was served least recently. A job creating thousands of cases
+ * therefore can't hold up another job's result upload.
+ */
+public final class TestRailScheduler {
+    public enum Priority {
+        /** Results, which builds and people are waiting for. */
+        HIGH,
+        NORMAL,
+        /** Creating sections and cases, possibly thousands of them on a first import. */
+        BULK
+    }
+
+    private static final int MAX_CONCURRENT = Integer.getInteger(TestRailScheduler.class.getName() + ".maxConcurrent", 10);
+    private static final int MAX_OWNERS = 1000;
+    private static final TestRailScheduler INSTANCE = new TestRailScheduler(MAX_CONCURRENT);
+
+    static {
+        TestRailMetrics.register(INSTANCE);
+    }
+
+    private final int maxConcurrent;
+    private final List<Waiter> waiting = new ArrayList<Waiter>();
+    // When each owner was last let through, in admission order.
+    private final Map<String, Long> lastServed = new HashMap<String, Long>();
+    private long sequence;
+    private int active;
+
+    TestRailScheduler(int maxConcurrent) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+    }
+
+    public static TestRailScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits for this request's turn. Every call has to be followed by {@link #release()}.
+     *
+     * @throws InterruptedIOException if the thread is interrupted, for instance because the build was aborted.
+     */
+    public synchronized void acquire(String owner, Priority priority) throws InterruptedIOException {
+        Waiter waiter = new Waiter(owner == null ? "" : owner, priority, sequence++);
+        waiting.add(waiter);
+        try {
+            while (active >= maxConcurrent || next() != waiter) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            waiting.remove(waiter);
+            notifyAll();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to call TestRail");
+        }
+        waiting.remove(waiter);
+        active++;
+        if (lastServed.size() >= MAX_OWNERS) {
+            lastServed.clear();
+        }
+        lastServed.put(waiter.owner, sequence++);
+        // The next waiter may fit into another free slot.
+        notifyAll();
+    }
+
+    public synchronized void release() {
+        active--;
+        notifyAll();
+    }
+
+    private Waiter next() {
+        Waiter best = null;
+        for (Waiter waiter : waiting) {
+            if (best == null || compare(waiter, best) < 0) {
+                best = waiter;
+            }
+        }
+        return best;
+    }
+
+    private int compare(Waiter a, Waiter b) {
+        if (a.priority != b.priority) {
+            return a.priority.compareTo(b.priority);
+        }
+        long servedA = lastServed.containsKey(a.owner) ? lastServed.get(a.owner) : -1;
+        long servedB = lastServed.containsKey(b.owner) ? lastServed.get(b.owner) : -1;
+        if (servedA != servedB) {
+            return servedA < servedB ? -1 : 1;
+        }
+        return a.arrival < b.arrival ? -1 : 1;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized int getQueueDepth() {
+        return waiting.size();
+    }
+
+    public synchronized int getQueueDepth(Priority priority) {
+        int depth = 0;
+        for (Waiter waiter : waiting) {
+            if (waiter.priority == priority) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * @return how many requests each owner has waiting.
+     */
+    public synchronized Map<String, Integer> getQueueDepthByOwner() {
+        Map<String, Integer> depths = new HashMap<String, Integer>();
+        for (Waiter waiter : waiting) {
+            Integer depth = depths.get(waiter.owner);
+            depths.put(waiter.owner, depth == null ? 1 : depth + 1);
+        }
+        return depths;
+    }
+
+    private static final class Waiter {
+        private final String owner;
+        private final Priority priority;
+        private final long arrival;
+
+        Waiter(String owner, Priority priority, long arrival) {
+            this.owner = owner;
+            this.priority = priority;
+            this.arrival = arrival;
+        }
+    }
+}
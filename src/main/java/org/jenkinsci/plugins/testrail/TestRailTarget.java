@@ -0,0 +1,216 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A TestRail project and suite that a {@link TestRailNotifier} publishes to.
+ */
+public class TestRailTarget extends AbstractDescribableImpl<TestRailTarget> {
+    private final int testrailProject;
+    private final int testrailSuite;
+    private String testrailProjectName;
+    private String testrailSuiteName;
+    private String testrailMilestone;
+    private String testrailRunId;
+    private String configIds;
+    private String junitResultsGlob;
+
+    @DataBoundConstructor
+    public TestRailTarget(int testrailProject, int testrailSuite) {
+        this.testrailProject = testrailProject;
+        this.testrailSuite = testrailSuite;
+    }
+
+    public int getTestrailProject() {
+        return this.testrailProject;
+    }
+
+    public int getTestrailSuite() {
+        return this.testrailSuite;
+    }
+
+    @DataBoundSetter
+    public void setTestrailProjectName(String name) {
+        this.testrailProjectName = Util.fixEmptyAndTrim(name);
+    }
+
+    public String getTestrailProjectName() {
+        return this.testrailProjectName;
+    }
+
+    @DataBoundSetter
+    public void setTestrailSuiteName(String name) {
+        this.testrailSuiteName = Util.fixEmptyAndTrim(name);
+    }
+
+    public String getTestrailSuiteName() {
+        return this.testrailSuiteName;
+    }
+
+    /**
+     * @return a copy of this target with its project, suite and milestone names, build variables expanded,
+     * replaced by their IDs. The names are looked up in cached indexes, so this rarely calls TestRail.
+     */
+    public TestRailTarget resolve(TestRailClient testrail, EnvVars env) throws Exception {
+        int project = testrailProjectName == null ? testrailProject
+                : TestRailLookups.resolveProjectId(testrail, env.expand(testrailProjectName));
+        int suite = testrailSuiteName == null ? testrailSuite
+                : TestRailLookups.resolveSuiteId(testrail, project, env.expand(testrailSuiteName));
+        TestRailTarget resolved = new TestRailTarget(project, suite);
+        resolved.testrailMilestone = TestRailLookups.resolveMilestoneId(testrail, project,
+                testrailMilestone == null ? null : env.expand(testrailMilestone));
+        resolved.testrailRunId = testrailRunId;
+        resolved.configIds = configIds;
+        resolved.junitResultsGlob = junitResultsGlob;
+        resolved.getConfigIdList();
+        return resolved;
+    }
+
+    @DataBoundSetter
+    public void setTestrailMilestone(String milestone) {
+        this.testrailMilestone = milestone;
+    }
+
+    public String getTestrailMilestone() {
+        return this.testrailMilestone;
+    }
+
+    @DataBoundSetter
+    public void setTestrailRunId(String runId) {
+        this.testrailRunId = runId;
+    }
+
+    public String getTestrailRunId() {
+        return this.testrailRunId;
+    }
+
+    @DataBoundSetter
+    public void setConfigIds(String configIds) {
+        this.configIds = configIds;
+    }
+
+    public String getConfigIds() {
+        return this.configIds;
+    }
+
+    /**
+     * @return the TestRail configuration IDs of this target's run in a test plan.
+     * @throws IllegalArgumentException if the configuration IDs are not numbers separated by commas.
+     */
+    public List<Integer> getConfigIdList() {
+        List<Integer> ids = new ArrayList<Integer>();
+        if (configIds != null) {
+            for (String id : configIds.split(",")) {
+                if (id.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    ids.add(Integer.parseInt(id.trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid TestRail configuration ID '" + id.trim()
+                            + "': configuration IDs must be numbers separated by commas.");
+                }
+            }
+        }
+        return ids;
+    }
+
+    @DataBoundSetter
+    public void setJunitResultsGlob(String junitResultsGlob) {
+        this.junitResultsGlob = Util.fixEmptyAndTrim(junitResultsGlob);
+    }
+
+    /**
+     * @return the result files of this target, or null to use the notifier's.
+     */
+    public String getJunitResultsGlob() {
+        return this.junitResultsGlob;
+    }
+
+    /**
+     * @return the existing run to append to, with build variables expanded, or 0 to create a new run.
+     */
+    public int resolveRunId(EnvVars env) {
+        if (Util.fixEmptyAndTrim(testrailRunId) == null) {
+            return 0;
+        }
+        return Integer.parseInt(env.expand(testrailRunId).trim());
+    }
+
+    public String getDisplayName() {
+        return "project " + testrailProject + ", suite " + testrailSuite;
+    }
+
+    @Symbol("testRailTarget")
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<TestRailTarget> {
+        // The lookups are the same as the notifier's, which holds the TestRail configuration.
+        private TestRailNotifier.DescriptorImpl getNotifierDescriptor() {
+            return Jenkins.getActiveInstance().getDescriptorByType(TestRailNotifier.DescriptorImpl.class);
+        }
+
+        public ListBoxModel doFillTestrailProjectItems() {
+            return getNotifierDescriptor().doFillTestrailProjectItems();
+        }
+
+        public ListBoxModel doFillTestrailSuiteItems(@QueryParameter int testrailProject) {
+            return getNotifierDescriptor().doFillTestrailSuiteItems(testrailProject);
+        }
+
+        public ListBoxModel doFillTestrailMilestoneItems(@QueryParameter int testrailProject) {
+            return getNotifierDescriptor().doFillTestrailMilestoneItems(testrailProject);
+        }
+
+        public FormValidation doCheckTestrailProject(@QueryParameter int value)
+                throws IOException, ServletException {
+            return getNotifierDescriptor().doCheckTestrailProject(value);
+        }
+
+        public FormValidation doCheckConfigIds(@QueryParameter String value) {
+            for (String id : Util.fixNull(value).split(",")) {
+                if (!id.trim().isEmpty() && !id.trim().matches("\\d+")) {
+                    return FormValidation.error("Configuration IDs must be numbers separated by commas.");
+                }
+            }
+            return FormValidation.ok();
+        }
+
+        public String getDisplayName() {
+            return "TestRail Target";
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.ChartUtil;
+import hudson.util.ChartUtil.NumberOnlyBuildLabel;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import hudson.util.ShiftedCategoryAxis;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Charts the TestRail publish timings of the last builds on the job page, so a slow phase stands out.
+ */
+public class TestRailTrendAction implements Action {
+    private static final int MAX_BUILDS = 30;
+
+    private final Job<?, ?> job;
+
+    public TestRailTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    public Job<?, ?> getJob() { return this.job; }
+
+    /**
+     * @return the last completed build with TestRail timings among the last {@link #MAX_BUILDS}, or null.
+     * Older builds aren't looked at, since each one is loaded from disk on every job page view.
+     */
+    public Run<?, ?> getLastBuild() {
+        int builds = 0;
+        for (Run<?, ?> r = job.getLastCompletedBuild(); r != null && builds < MAX_BUILDS; r = r.getPreviousCompletedBuild(), builds++) {
+            if (r.getAction(TestRailPublishAction.class) != null) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    public void doGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (ChartUtil.awtProblemCause != null) {
+            rsp.sendRedirect2(req.getContextPath() + "/images/headless.png");
+            return;
+        }
+        Run<?, ?> last = getLastBuild();
+        if (last == null) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+        final DataSetBuilder<String, NumberOnlyBuildLabel> data = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+        int builds = 0;
+        for (Run<?, ?> r = last; r != null && builds < MAX_BUILDS; r = r.getPreviousCompletedBuild(), builds++) {
+            TestRailPublishAction action = r.getAction(TestRailPublishAction.class);
+            if (action == null) {
+                continue;
+            }
+            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(r);
+            data.add(action.getTotal() / 1000.0, "total", label);
+            for (Map.Entry<String, Long> category : action.getCategories().entrySet()) {
+                data.add(category.getValue() / 1000.0, category.getKey(), label);
+            }
+        }
+        new Graph(last.getTimestamp(), 500, 200) {
+            @Override
+            protected JFreeChart createGraph() {
+                JFreeChart chart = ChartFactory.createLineChart(null, null, "seconds", data.build(),
+                        PlotOrientation.VERTICAL, true, true, false);
+                chart.setBackgroundPaint(Color.white);
+                CategoryPlot plot = chart.getCategoryPlot();
+                plot.setBackgroundPaint(Color.white);
+                plot.setRangeGridlinePaint(Color.lightGray);
+                CategoryAxis domainAxis = new ShiftedCategoryAxis(null);
+                domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+                domainAxis.setLowerMargin(0.0);
+                domainAxis.setUpperMargin(0.0);
+                domainAxis.setCategoryMargin(0.0);
+                plot.setDomainAxis(domainAxis);
+                return chart;
+            }
+        }.doPng(req, rsp);
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "TestRail Timing Trend";
+    }
+
+    public String getUrlName() {
+        return "testrailTrend";
+    }
+}
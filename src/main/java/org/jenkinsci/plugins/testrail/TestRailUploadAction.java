@@ -0,0 +1,105 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+import java.io.IOException;
+
+import static org.jenkinsci.plugins.testrail.Utils.*;
+
+/**
+ * Status of a background TestRail upload, shown on the build page.
+ */
+public class TestRailUploadAction implements RunAction2 {
+    public enum Status { QUEUED, UPLOADING, SUCCEEDED, FAILED }
+
+    private final int runId;
+    private final int resultCount;
+    private volatile Status status = Status.QUEUED;
+    private volatile String message;
+    private transient Run<?, ?> run;
+
+    public TestRailUploadAction(Run<?, ?> run, int runId, int resultCount) {
+        this.run = run;
+        this.runId = runId;
+        this.resultCount = resultCount;
+    }
+
+    public int getRunId() { return this.runId; }
+    public int getResultCount() { return this.resultCount; }
+    public Status getStatus() { return this.status; }
+    public String getMessage() { return this.message; }
+
+    public void update(Status status, String message) {
+        this.status = status;
+        this.message = message;
+        if (status == Status.SUCCEEDED || status == Status.FAILED) {
+            try {
+                run.save();
+            } catch (IOException e) {
+                log("Failed to save TestRail upload status of " + run, e);
+            }
+        }
+    }
+
+    /**
+     * Records on the owning build that results left in the outbox have been replayed.
+     */
+    static void replayed(OutboxEntry entry) {
+        if (entry.getOwner() == null) {
+            return;
+        }
+        Run<?, ?> owner = Run.fromExternalizableId(entry.getOwner());
+        if (owner == null) {
+            return;
+        }
+        String message = "Uploaded from the outbox after an earlier attempt failed.";
+        for (TestRailUploadAction action : owner.getActions(TestRailUploadAction.class)) {
+            if (action.getRunId() == entry.getRunId()) {
+                action.update(Status.SUCCEEDED, message);
+                return;
+            }
+        }
+        TestRailUploadAction action = new TestRailUploadAction(owner, entry.getRunId(), entry.getResultCount());
+        owner.addAction(action);
+        action.update(Status.SUCCEEDED, message);
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "TestRail Upload";
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+}
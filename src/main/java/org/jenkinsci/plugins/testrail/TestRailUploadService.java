@@ -0,0 +1,91 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.jenkinsci.plugins.testrail.Utils.*;
+
+/**
+ * Controller-side pool that uploads results after the build step has returned,
+ * so executors aren't held for the TestRail round trip.
+ *
+ * The pool size and queue length can be tuned with the
+ * {@code org.jenkinsci.plugins.testrail.TestRailUploadService.workers} and
+ * {@code org.jenkinsci.plugins.testrail.TestRailUploadService.queueSize} system properties.
+ */
+public final class TestRailUploadService {
+    private static final int WORKERS = Integer.getInteger(TestRailUploadService.class.getName() + ".workers", 4);
+    private static final int QUEUE_SIZE = Integer.getInteger(TestRailUploadService.class.getName() + ".queueSize", 100);
+    private static final TestRailUploadService INSTANCE = new TestRailUploadService();
+
+    private final ThreadPoolExecutor executor;
+
+    private TestRailUploadService() {
+        executor = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                new NamingThreadFactory(new DaemonThreadFactory(), "TestRail upload"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static TestRailUploadService get() {
+        return INSTANCE;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Queues an upload and reports its progress through the given action.
+     *
+     * @return false if the queue is full and the caller has to upload by itself.
+     */
+    public boolean submit(final TestRailUploadAction action, final Callable<?> upload) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    action.update(TestRailUploadAction.Status.UPLOADING, null);
+                    try {
+                        upload.call();
+                        action.update(TestRailUploadAction.Status.SUCCEEDED, null);
+                    } catch (Exception e) {
+                        log("Background upload to TestRail run " + action.getRunId() + " failed", e);
+                        action.update(TestRailUploadAction.Status.FAILED,
+                                e.getMessage() + " The results were kept in the outbox and will be retried.");
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+}
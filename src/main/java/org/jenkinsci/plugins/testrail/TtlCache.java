@@ -0,0 +1,157 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.jenkinsci.plugins.testrail.Utils.*;
+
+/**
+ * A cache whose values expire after a while. Only one caller loads a missing value while the others
+ * wait for it, and an expired value is still returned while it's refreshed in the background.
+ * Failed loads aren't cached.
+ */
+public class TtlCache<K, V> {
+    private static final ExecutorService REFRESHER = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "TestRail cache refresh"));
+
+    public interface Loader<V> {
+        V load() throws Exception;
+    }
+
+    private final long ttl;
+    private final int maxSize;
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+
+    /**
+     * @param maxSize the cache is cleared when it reaches this many keys.
+     */
+    public TtlCache(long ttl, TimeUnit unit, int maxSize) {
+        this.ttl = unit.toNanos(ttl);
+        this.maxSize = maxSize;
+    }
+
+    public V get(K key, final Loader<V> loader) throws Exception {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= maxSize) {
+                entries.clear();
+            }
+            Entry<V> created = new Entry<V>();
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+
+        final Entry<V> e = entry;
+        FutureTask<V> load;
+        boolean start = false;
+        synchronized (e) {
+            if (e.loaded && System.nanoTime() - e.loadedAt < ttl) {
+                return e.value;
+            }
+            if (e.loading == null) {
+                e.loading = new FutureTask<V>(new Callable<V>() {
+                    public V call() throws Exception {
+                        try {
+                            V value = loader.load();
+                            synchronized (e) {
+                                e.value = value;
+                                e.loadedAt = System.nanoTime();
+                                e.loaded = true;
+                            }
+                            return value;
+                        } finally {
+                            synchronized (e) {
+                                e.loading = null;
+                            }
+                        }
+                    }
+                });
+                start = true;
+            }
+            load = e.loading;
+            if (e.loaded) {
+                // Stale while revalidate: the caller gets the old value right away.
+                if (start) {
+                    REFRESHER.execute(new Refresh<V>(load));
+                }
+                return e.value;
+            }
+        }
+
+        if (start) {
+            load.run();
+        }
+        try {
+            return load.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    private static final class Entry<V> {
+        V value;
+        long loadedAt;
+        boolean loaded;
+        FutureTask<V> loading;
+    }
+
+    private static final class Refresh<V> implements Runnable {
+        private final FutureTask<V> load;
+
+        Refresh(FutureTask<V> load) {
+            this.load = load;
+        }
+
+        public void run() {
+            load.run();
+            try {
+                load.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                log("Refreshing a cached TestRail lookup failed, keeping the old value", e.getCause());
+            }
+        }
+    }
+}
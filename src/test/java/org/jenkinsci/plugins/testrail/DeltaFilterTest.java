@@ -0,0 +1,125 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import org.jenkinsci.plugins.testrail.TestRailObjects.CaseStatus;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Result;
+import org.jenkinsci.plugins.testrail.TestRailObjects.Results;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class DeltaFilterTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static Results results(Result... results) {
+        Results r = new Results();
+        for (Result result : results) {
+            r.addResult(result);
+        }
+        return r;
+    }
+
+    private File file() throws IOException {
+        return new File(tmp.getRoot(), "testrail-delta.txt");
+    }
+
+    @Test
+    public void unchangedResultsAreSuppressedOnceCommitted() throws IOException {
+        Results uploaded = results(new Result(1, CaseStatus.PASSED, "ok", null), new Result(2, CaseStatus.FAILED, "boom", null));
+        DeltaFilter first = new DeltaFilter(file(), 7);
+        assertEquals(2, first.filter(uploaded).size());
+        first.commit(uploaded);
+
+        DeltaFilter second = new DeltaFilter(file(), 7);
+        Results changed = second.filter(results(new Result(1, CaseStatus.PASSED, "ok", null),
+                new Result(2, CaseStatus.PASSED, "fixed", null), new Result(3, CaseStatus.PASSED, "new", null)));
+        assertEquals(2, changed.size());
+        assertEquals(2, changed.getResults().get(0).getCaseId());
+        assertEquals(3, changed.getResults().get(1).getCaseId());
+        assertEquals(1, second.getSuppressed());
+    }
+
+    @Test
+    public void filteringRecordsNothing() throws IOException {
+        Results results = results(new Result(1, CaseStatus.PASSED, "ok", null));
+        assertEquals(1, new DeltaFilter(file(), 7).filter(results).size());
+        // The upload never happened, so the next build sends the result again.
+        assertEquals(1, new DeltaFilter(file(), 7).filter(results).size());
+        assertFalse(file().exists());
+    }
+
+    @Test
+    public void repeatedCaseCountsOnce() throws IOException {
+        DeltaFilter filter = new DeltaFilter(file(), 7);
+        Results changed = filter.filter(results(new Result(1, CaseStatus.PASSED, "ok", null),
+                new Result(1, CaseStatus.PASSED, "ok", null)));
+        assertEquals(1, changed.size());
+        assertEquals(1, filter.getSuppressed());
+    }
+
+    @Test
+    public void numbersAndWhitespaceInCommentsAreNotChanges() throws IOException {
+        new DeltaFilter(file(), 7).commit(results(new Result(1, CaseStatus.FAILED, "timed out after 31 ms at line 12", null)));
+        DeltaFilter filter = new DeltaFilter(file(), 7);
+        assertEquals(0, filter.filter(results(new Result(1, CaseStatus.FAILED, "timed out  after 45 ms at line 12", null))).size());
+        assertEquals(1, filter.filter(results(new Result(1, CaseStatus.FAILED, "assertion failed", null))).size());
+    }
+
+    @Test
+    public void attachedCommentsAreComparedInFull() throws IOException {
+        Result attached = new Result(1, CaseStatus.FAILED, "summary", null);
+        attached.setAttachment("summary\nfull output");
+        new DeltaFilter(file(), 7).commit(results(attached));
+
+        Result other = new Result(1, CaseStatus.FAILED, "summary", null);
+        other.setAttachment("summary\nother output");
+        assertEquals(1, new DeltaFilter(file(), 7).filter(results(other)).size());
+    }
+
+    @Test
+    public void runsAreTrackedSeparately() throws IOException {
+        Results results = results(new Result(1, CaseStatus.PASSED, "ok", null));
+        new DeltaFilter(file(), 7).commit(results);
+        assertEquals(1, new DeltaFilter(file(), 8).filter(results).size());
+        assertEquals(0, new DeltaFilter(file(), 7).filter(results).size());
+    }
+
+    @Test
+    public void oldestRunsAreDropped() throws IOException {
+        Results results = results(new Result(1, CaseStatus.PASSED, "ok", null));
+        for (int run = 1; run <= DeltaFilter.MAX_RUNS; run++) {
+            new DeltaFilter(file(), run).commit(results);
+        }
+        // Committing to run 1 again makes it the most recent, so run 2 is the one dropped.
+        new DeltaFilter(file(), 1).commit(results);
+        new DeltaFilter(file(), DeltaFilter.MAX_RUNS + 1).commit(results);
+
+        assertEquals(0, new DeltaFilter(file(), 1).filter(results).size());
+        assertEquals(1, new DeltaFilter(file(), 2).filter(results).size());
+        assertEquals(0, new DeltaFilter(file(), 3).filter(results).size());
+        assertEquals(0, new DeltaFilter(file(), DeltaFilter.MAX_RUNS + 1).filter(results).size());
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import org.jenkinsci.plugins.testrail.TestRailObjects.Project;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestRailClientTest {
+    private TestRailSimulator testrail;
+    private TestRailClient client;
+
+    @Before
+    public void start() throws Exception {
+        testrail = new TestRailSimulator().start();
+        client = new TestRailClient(testrail.getUrl(), "user", "password");
+    }
+
+    @After
+    public void stop() {
+        testrail.close();
+    }
+
+    @Test
+    public void retriesAfterTheRateLimitPause() throws Exception {
+        int project = testrail.addProject("Project");
+        testrail.setRateLimit(0, 1).failNext("get_projects", 429);
+
+        long start = System.nanoTime();
+        Project[] projects = client.getProjects();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(1, projects.length);
+        assertEquals(project, projects[0].getId());
+        assertEquals(Integer.valueOf(2), testrail.getRequestCounts().get("get_projects"));
+        // Retry-After is a second; allow for the clock's granularity.
+        assertTrue("retried after " + elapsed + " ms", elapsed >= 900);
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail.TestRailObjects;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResultsTest {
+    private static Results results(Result... results) {
+        Results r = new Results();
+        for (Result result : results) {
+            r.addResult(result);
+        }
+        return r;
+    }
+
+    private static Result result(int caseId, CaseStatus status) {
+        return new Result(caseId, status, null, 1f);
+    }
+
+    private static List<String> describe(Results results) {
+        List<String> described = new ArrayList<String>();
+        for (Result result : results.getResults()) {
+            described.add(result.getCaseId() + " " + result.getStatus());
+        }
+        return described;
+    }
+
+    private static List<List<String>> describe(List<Results> chunks) {
+        List<List<String>> described = new ArrayList<List<String>>();
+        for (Results chunk : chunks) {
+            described.add(describe(chunk));
+        }
+        return described;
+    }
+
+    @Test
+    public void noAggregationKeepsEveryResult() {
+        Results r = results(result(1, CaseStatus.PASSED), result(1, CaseStatus.FAILED));
+        assertSame(r, r.aggregate(ResultAggregation.NONE));
+        assertSame(r, r.aggregate(null));
+    }
+
+    @Test
+    public void worstStatusWins() {
+        Results r = results(result(1, CaseStatus.FAILED), result(2, CaseStatus.PASSED),
+                result(1, CaseStatus.PASSED), result(1, CaseStatus.BLOCKED)).aggregate(ResultAggregation.WORST);
+        assertEquals(2, r.size());
+        assertEquals("1 FAILED", describe(r).get(0));
+        assertEquals("2 PASSED", describe(r).get(1));
+        assertEquals(3f, r.getResults().get(0).getElapsed(), 0f);
+    }
+
+    @Test
+    public void lastStatusWins() {
+        Results r = results(result(1, CaseStatus.FAILED), result(1, CaseStatus.PASSED)).aggregate(ResultAggregation.LAST);
+        assertEquals(1, r.size());
+        assertEquals("1 PASSED", describe(r).get(0));
+    }
+
+    @Test
+    public void aggregationMergesComments() {
+        Results r = results(new Result(1, CaseStatus.PASSED, "first", null), new Result(1, CaseStatus.FAILED, "second", null),
+                new Result(1, CaseStatus.PASSED, null, null)).aggregate(ResultAggregation.WORST);
+        assertEquals("first\n\nsecond", r.getResults().get(0).getComment());
+        assertNull(r.getResults().get(0).getElapsed());
+    }
+
+    @Test
+    public void aggregatedCommentsAreCapped() {
+        StringBuilder longComment = new StringBuilder();
+        while (longComment.length() < Results.MAX_COMMENT_LENGTH) {
+            longComment.append("stack trace line\n");
+        }
+        Results r = results(new Result(1, CaseStatus.FAILED, "short", null),
+                new Result(1, CaseStatus.FAILED, longComment.toString(), null)).aggregate(ResultAggregation.WORST);
+        String comment = r.getResults().get(0).getComment();
+        assertEquals(Results.MAX_COMMENT_LENGTH, comment.length());
+        assertTrue(comment.endsWith("..."));
+    }
+
+    @Test
+    public void failuresArePartitionedFirst() {
+        List<Results> chunks = results(result(1, CaseStatus.PASSED), result(2, CaseStatus.BLOCKED),
+                result(3, CaseStatus.PASSED), result(4, CaseStatus.FAILED), result(5, CaseStatus.RETEST))
+                .partitionFailuresFirst(10);
+        assertEquals(2, chunks.size());
+        assertEquals("[4 FAILED, 2 BLOCKED, 5 RETEST]", describe(chunks.get(0)).toString());
+        assertEquals("[1 PASSED, 3 PASSED]", describe(chunks.get(1)).toString());
+    }
+
+    @Test
+    public void passesNeverShareAChunkWithFailures() {
+        List<Results> chunks = results(result(1, CaseStatus.FAILED), result(2, CaseStatus.PASSED),
+                result(3, CaseStatus.FAILED), result(4, CaseStatus.FAILED), result(5, CaseStatus.PASSED))
+                .partitionFailuresFirst(2);
+        assertEquals("[[1 FAILED, 3 FAILED], [4 FAILED], [2 PASSED, 5 PASSED]]", describe(chunks).toString());
+    }
+
+    @Test
+    public void resultsOfACaseKeepTheirOrder() {
+        // TestRail shows the last result posted, so the failure has to stay after the pass.
+        List<Results> chunks = results(result(1, CaseStatus.PASSED), result(2, CaseStatus.PASSED),
+                result(1, CaseStatus.FAILED), result(2, CaseStatus.PASSED), result(3, CaseStatus.FAILED),
+                result(3, CaseStatus.PASSED)).partitionFailuresFirst(10);
+        assertEquals("[[1 PASSED, 1 FAILED, 3 FAILED, 3 PASSED], [2 PASSED, 2 PASSED]]", describe(chunks).toString());
+    }
+
+    @Test
+    public void noResultsMakeNoChunks() {
+        assertTrue(new Results().partitionFailuresFirst(10).isEmpty());
+    }
+}
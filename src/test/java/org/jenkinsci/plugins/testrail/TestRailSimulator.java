@@ -0,0 +1,507 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jenkinsci.plugins.testrail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory stand-in for the TestRail API, for measuring throughput and resilience without a TestRail server.
+ * It serves the endpoints the plugin calls on a local port, with configurable latency, pagination,
+ * rate limiting with {@code Retry-After}, and injected errors.
+ *
+ * <pre>
+ * TestRailSimulator testrail = new TestRailSimulator().start();
+ * int project = testrail.addProject("Web");
+ * int suite = testrail.addSuite(project, "Regression");
+ * TestRailClient client = new TestRailClient(testrail.getUrl(), "user", "password");
+ * ...
+ * testrail.close();
+ * </pre>
+ *
+ * It can also be run on its own, for instance to point a Jenkins started with {@code mvn hpi:run} at it:
+ * {@code java -cp ... org.jenkinsci.plugins.testrail.TestRailSimulator [port]}.
+ */
+public class TestRailSimulator implements Closeable {
+    private static final String API = "/api/v2/";
+
+    private final int port;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    // Behavior, changeable while running.
+    private volatile long minLatency;
+    private volatile long maxLatency;
+    private volatile int pageSize;
+    private volatile int rateLimit;
+    private volatile int retryAfter = 1;
+    private volatile double errorRate;
+    private final Random random = new Random(42);
+    private final Map<String, List<Integer>> injectedErrors = new HashMap<String, List<Integer>>();
+    private long windowStart = System.nanoTime();
+    private int windowRequests;
+
+    // Data, guarded by this.
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Map<Integer, JSONObject> projects = new LinkedHashMap<Integer, JSONObject>();
+    private final Map<Integer, JSONObject> suites = new LinkedHashMap<Integer, JSONObject>();
+    private final Map<Integer, JSONObject> sections = new LinkedHashMap<Integer, JSONObject>();
+    private final Map<Integer, JSONObject> cases = new LinkedHashMap<Integer, JSONObject>();
+    private final Map<Integer, JSONObject> milestones = new LinkedHashMap<Integer, JSONObject>();
+    private final Map<Integer, JSONObject> runs = new LinkedHashMap<Integer, JSONObject>();
+    private final Map<Integer, JSONObject> plans = new LinkedHashMap<Integer, JSONObject>();
+    private final Map<Integer, List<JSONObject>> results = new HashMap<Integer, List<JSONObject>>();
+    private final Map<String, AtomicInteger> requests = new LinkedHashMap<String, AtomicInteger>();
+
+    /**
+     * A simulator on a free port.
+     */
+    public TestRailSimulator() {
+        this(0);
+    }
+
+    public TestRailSimulator(int port) {
+        this.port = port;
+    }
+
+    public TestRailSimulator start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return this;
+    }
+
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * @return the URL to configure as the TestRail host.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Delays every response by a random time between the two bounds, in milliseconds.
+     */
+    public TestRailSimulator setLatency(long minMillis, long maxMillis) {
+        this.minLatency = minMillis;
+        this.maxLatency = Math.max(minMillis, maxMillis);
+        return this;
+    }
+
+    /**
+     * Pages the responses of the list endpoints like TestRail 6.7 and later, with {@code offset}, {@code limit},
+     * {@code size} and {@code _links}. Zero, the default, returns bare arrays like older versions.
+     */
+    public TestRailSimulator setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Answers 429 with the given {@code Retry-After} once more than the given number of requests arrive within
+     * a second. Zero, the default, doesn't limit.
+     */
+    public TestRailSimulator setRateLimit(int requestsPerSecond, int retryAfterSeconds) {
+        this.rateLimit = requestsPerSecond;
+        this.retryAfter = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * Fails the given fraction of requests, chosen at random, with a 500.
+     */
+    public TestRailSimulator setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Answers the next requests to an endpoint, such as {@code add_results_for_cases}, with the given statuses
+     * in order, before serving it normally again.
+     */
+    public synchronized TestRailSimulator failNext(String endpoint, int... statuses) {
+        List<Integer> queued = injectedErrors.get(endpoint);
+        if (queued == null) {
+            queued = new ArrayList<Integer>();
+            injectedErrors.put(endpoint, queued);
+        }
+        for (int status : statuses) {
+            queued.add(status);
+        }
+        return this;
+    }
+
+    public synchronized int addProject(String name) {
+        int id = ids.incrementAndGet();
+        projects.put(id, new JSONObject().put("id", id).put("name", name));
+        return id;
+    }
+
+    public synchronized int addSuite(int projectId, String name) {
+        int id = ids.incrementAndGet();
+        suites.put(id, new JSONObject().put("id", id).put("project_id", projectId).put("name", name));
+        return id;
+    }
+
+    public synchronized int addMilestone(int projectId, String name) {
+        int id = ids.incrementAndGet();
+        milestones.put(id, new JSONObject().put("id", id).put("project_id", projectId).put("name", name));
+        return id;
+    }
+
+    /**
+     * @param parentId the parent section, or null for a top level section.
+     */
+    public synchronized int addSection(int suiteId, String name, Integer parentId) {
+        int id = ids.incrementAndGet();
+        sections.put(id, new JSONObject().put("id", id).put("suite_id", suiteId).put("name", name)
+                .put("parent_id", parentId == null ? JSONObject.NULL : parentId));
+        return id;
+    }
+
+    public synchronized int addCase(int sectionId, String title) {
+        int id = ids.incrementAndGet();
+        JSONObject section = sections.get(sectionId);
+        cases.put(id, new JSONObject().put("id", id).put("section_id", sectionId)
+                .put("suite_id", section == null ? 0 : section.getInt("suite_id")).put("title", title).put("refs", ""));
+        return id;
+    }
+
+    public synchronized int getCaseCount() {
+        return cases.size();
+    }
+
+    public synchronized int getSectionCount() {
+        return sections.size();
+    }
+
+    /**
+     * @return the results posted to a run, in the order they arrived.
+     */
+    public synchronized List<JSONObject> getResults(int runId) {
+        List<JSONObject> posted = results.get(runId);
+        return posted == null ? new ArrayList<JSONObject>() : new ArrayList<JSONObject>(posted);
+    }
+
+    public synchronized boolean isClosed(int runId) {
+        JSONObject run = runs.get(runId);
+        return run != null && run.getBoolean("is_completed");
+    }
+
+    /**
+     * @return how many requests each endpoint got, including the rejected ones.
+     */
+    public synchronized Map<String, Integer> getRequestCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> count : requests.entrySet()) {
+            counts.put(count.getKey(), count.getValue().get());
+        }
+        return counts;
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || !query.startsWith(API)) {
+            // The plugin checks that the host is reachable with a plain GET.
+            respond(exchange, 200, "TestRail simulator");
+            return;
+        }
+        String[] parts = query.substring(API.length()).split("&");
+        String[] call = parts[0].split("/");
+        String endpoint = call[0];
+        int id = call.length > 1 ? Integer.parseInt(call[1]) : 0;
+        Map<String, String> params = new HashMap<String, String>();
+        for (int i = 1; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            if (eq > 0) {
+                params.put(parts[i].substring(0, eq), parts[i].substring(eq + 1));
+            }
+        }
+        String body = read(exchange.getRequestBody());
+
+        delay();
+        Integer injected = admit(endpoint);
+        if (injected != null) {
+            if (injected == 429) {
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfter));
+                respond(exchange, 429, new JSONObject().put("error", "API Rate Limit Exceeded").toString());
+            } else {
+                respond(exchange, injected, new JSONObject().put("error", "Injected error").toString());
+            }
+            return;
+        }
+
+        try {
+            Object response = handle(endpoint, id, params, body);
+            if (response == null) {
+                respond(exchange, 400, new JSONObject().put("error", "Unknown method " + endpoint).toString());
+            } else {
+                respond(exchange, 200, response.toString());
+            }
+        } catch (RuntimeException e) {
+            respond(exchange, 400, new JSONObject().put("error", String.valueOf(e.getMessage())).toString());
+        }
+    }
+
+    /**
+     * Counts the request and decides whether it fails.
+     *
+     * @return the status to fail it with, or null to serve it.
+     */
+    private synchronized Integer admit(String endpoint) {
+        AtomicInteger count = requests.get(endpoint);
+        if (count == null) {
+            count = new AtomicInteger();
+            requests.put(endpoint, count);
+        }
+        count.incrementAndGet();
+
+        List<Integer> queued = injectedErrors.get(endpoint);
+        if (queued != null && !queued.isEmpty()) {
+            return queued.remove(0);
+        }
+        if (rateLimit > 0) {
+            long now = System.nanoTime();
+            if (now - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+                windowStart = now;
+                windowRequests = 0;
+            }
+            if (++windowRequests > rateLimit) {
+                return 429;
+            }
+        }
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            return 500;
+        }
+        return null;
+    }
+
+    private synchronized Object handle(String endpoint, int id, Map<String, String> params, String body) {
+        // Attachments are multipart, everything else is JSON.
+        JSONObject payload = body.startsWith("{") ? new JSONObject(body) : new JSONObject();
+        if ("get_projects".equals(endpoint)) {
+            return page("projects", new ArrayList<JSONObject>(projects.values()), endpoint, params);
+        } else if ("get_suites".equals(endpoint)) {
+            return new JSONArray(filter(suites, "project_id", id));
+        } else if ("get_milestones".equals(endpoint)) {
+            return page("milestones", filter(milestones, "project_id", id), endpoint + "/" + id, params);
+        } else if ("get_sections".equals(endpoint)) {
+            return page("sections", filter(sections, "suite_id", Integer.parseInt(params.get("suite_id"))),
+                    endpoint + "/" + id + "&suite_id=" + params.get("suite_id"), params);
+        } else if ("get_cases".equals(endpoint)) {
+            return page("cases", filter(cases, "suite_id", Integer.parseInt(params.get("suite_id"))),
+                    endpoint + "/" + id + "&suite_id=" + params.get("suite_id"), params);
+        } else if ("add_section".equals(endpoint)) {
+            Object parent = payload.opt("parent_id");
+            Integer parentId = parent == null || parent == JSONObject.NULL || "null".equals(String.valueOf(parent))
+                    ? null : Integer.valueOf(String.valueOf(parent));
+            return sections.get(addSection(payload.getInt("suite_id"), payload.getString("name"), parentId));
+        } else if ("add_case".equals(endpoint)) {
+            JSONObject created = cases.get(addCase(id, payload.getString("title")));
+            return created.put("refs", payload.optString("refs"));
+        } else if ("add_run".equals(endpoint)) {
+            return addRun(id, payload);
+        } else if ("update_run".equals(endpoint)) {
+            JSONObject run = existing(runs, id, "run");
+            run.put("include_all", payload.optBoolean("include_all", true));
+            run.put("case_ids", payload.optJSONArray("case_ids"));
+            return run;
+        } else if ("close_run".equals(endpoint)) {
+            return existing(runs, id, "run").put("is_completed", true);
+        } else if ("add_plan".equals(endpoint)) {
+            return addPlan(id, payload);
+        } else if ("close_plan".equals(endpoint)) {
+            JSONObject plan = existing(plans, id, "plan").put("is_completed", true);
+            for (int i = 0; i < plan.getJSONArray("entries").length(); i++) {
+                JSONArray entryRuns = plan.getJSONArray("entries").getJSONObject(i).getJSONArray("runs");
+                for (int j = 0; j < entryRuns.length(); j++) {
+                    entryRuns.getJSONObject(j).put("is_completed", true);
+                }
+            }
+            return plan;
+        } else if ("add_results_for_cases".equals(endpoint)) {
+            existing(runs, id, "run");
+            JSONArray posted = payload.getJSONArray("results");
+            List<JSONObject> runResults = results.get(id);
+            if (runResults == null) {
+                runResults = new ArrayList<JSONObject>();
+                results.put(id, runResults);
+            }
+            JSONArray created = new JSONArray();
+            for (int i = 0; i < posted.length(); i++) {
+                JSONObject result = posted.getJSONObject(i);
+                result.put("id", ids.incrementAndGet()).put("test_id", result.getInt("case_id"));
+                runResults.add(result);
+                created.put(result);
+            }
+            return created;
+        } else if ("add_attachment_to_result".equals(endpoint)) {
+            return new JSONObject().put("attachment_id", ids.incrementAndGet());
+        }
+        return null;
+    }
+
+    private JSONObject addRun(int projectId, JSONObject payload) {
+        int id = ids.incrementAndGet();
+        JSONObject run = new JSONObject().put("id", id).put("project_id", projectId)
+                .put("suite_id", payload.getInt("suite_id")).put("milestone_id", payload.opt("milestone_id"))
+                .put("description", payload.optString("description"))
+                .put("include_all", payload.optBoolean("include_all", true))
+                .put("case_ids", payload.optJSONArray("case_ids"))
+                .put("config_ids", payload.optJSONArray("config_ids"))
+                .put("is_completed", false);
+        runs.put(id, run);
+        return run;
+    }
+
+    private JSONObject addPlan(int projectId, JSONObject payload) {
+        int id = ids.incrementAndGet();
+        JSONArray entries = new JSONArray();
+        JSONArray requested = payload.optJSONArray("entries");
+        for (int i = 0; requested != null && i < requested.length(); i++) {
+            JSONObject entry = requested.getJSONObject(i);
+            JSONArray entryRuns = new JSONArray();
+            JSONArray requestedRuns = entry.optJSONArray("runs");
+            if (requestedRuns == null) {
+                entryRuns.put(addRun(projectId, entry));
+            } else {
+                for (int j = 0; j < requestedRuns.length(); j++) {
+                    entryRuns.put(addRun(projectId, requestedRuns.getJSONObject(j).put("suite_id", entry.getInt("suite_id"))));
+                }
+            }
+            entries.put(new JSONObject().put("id", String.valueOf(ids.incrementAndGet()))
+                    .put("suite_id", entry.getInt("suite_id")).put("runs", entryRuns));
+        }
+        JSONObject plan = new JSONObject().put("id", id).put("project_id", projectId)
+                .put("name", payload.optString("name")).put("entries", entries).put("is_completed", false);
+        plans.put(id, plan);
+        return plan;
+    }
+
+    private static List<JSONObject> filter(Map<Integer, JSONObject> objects, String key, int value) {
+        List<JSONObject> matching = new ArrayList<JSONObject>();
+        for (JSONObject o : objects.values()) {
+            if (o.optInt(key) == value) {
+                matching.add(o);
+            }
+        }
+        return matching;
+    }
+
+    private static JSONObject existing(Map<Integer, JSONObject> objects, int id, String kind) {
+        JSONObject o = objects.get(id);
+        if (o == null) {
+            throw new IllegalArgumentException("Field :" + kind + "_id is not a valid " + kind + ".");
+        }
+        return o;
+    }
+
+    private Object page(String name, List<JSONObject> all, String call, Map<String, String> params) {
+        if (pageSize <= 0) {
+            return new JSONArray(all);
+        }
+        int offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : 0;
+        int limit = params.containsKey("limit") ? Math.min(pageSize, Integer.parseInt(params.get("limit"))) : pageSize;
+        int end = Math.min(all.size(), offset + limit);
+        List<JSONObject> slice = offset < end ? all.subList(offset, end) : new ArrayList<JSONObject>();
+        JSONObject links = new JSONObject()
+                .put("next", end < all.size() ? API + call + "&limit=" + limit + "&offset=" + end : JSONObject.NULL)
+                .put("prev", offset > 0 ? API + call + "&limit=" + limit + "&offset=" + Math.max(0, offset - limit) : JSONObject.NULL);
+        return new JSONObject().put("offset", offset).put("limit", limit).put("size", slice.size())
+                .put("_links", links).put(name, new JSONArray(slice));
+    }
+
+    private void delay() {
+        long millis = minLatency;
+        if (maxLatency > minLatency) {
+            millis += (long) (random.nextDouble() * (maxLatency - minLatency));
+        }
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        TestRailSimulator testrail = new TestRailSimulator(args.length > 0 ? Integer.parseInt(args[0]) : 8081).start();
+        int project = testrail.addProject("Simulated Project");
+        int suite = testrail.addSuite(project, "Simulated Suite");
+        testrail.addMilestone(project, "Simulated Milestone");
+        System.out.println("TestRail simulator at " + testrail.getUrl() + ", project " + project + ", suite " + suite);
+    }
+}